@@ -1,2 +1,7 @@
 -dontwarn rx.**
--keep class android.support.v7.widget.SearchView { *; }
\ No newline at end of file
+-keep class android.support.v7.widget.SearchView { *; }
+# OkHttp
+-dontwarn okhttp3.**
+-dontwarn okio.**
+-dontwarn javax.annotation.**
+-dontwarn org.conscrypt.**
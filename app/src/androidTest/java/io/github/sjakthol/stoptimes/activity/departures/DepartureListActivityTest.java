@@ -0,0 +1,98 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import android.content.Context;
+import android.content.Intent;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.R;
+import io.github.sjakthol.stoptimes.digitransit.DepartureCache;
+import io.github.sjakthol.stoptimes.digitransit.DigitransitApi;
+import io.github.sjakthol.stoptimes.digitransit.MockData;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.utils.Helpers;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.assertion.ViewAssertions.doesNotExist;
+import static android.support.test.espresso.assertion.ViewAssertions.matches;
+import static android.support.test.espresso.matcher.ViewMatchers.*;
+import static org.hamcrest.CoreMatchers.allOf;
+
+@RunWith(AndroidJUnit4.class)
+public class DepartureListActivityTest {
+    private static final String STOP_ID = "HSL:1310602";
+
+    @Rule
+    public ActivityTestRule<DepartureListActivity> mActivityRule =
+        new ActivityTestRule<>(DepartureListActivity.class, false, false);
+
+    private final CountDownLatch mRespond = new CountDownLatch(1);
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        // Hold every API response until the test is done with the cached state
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                mRespond.await();
+                return new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(MockData.MOCK_DEPARTURES);
+            }
+        });
+
+        DigitransitApi.API_GRAPHQL = mServer.url("GRAPHQL").toString();
+        DepartureCache.getInstance().clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mRespond.countDown();
+        mServer.shutdown();
+        DepartureCache.getInstance().clear();
+    }
+
+    @Test
+    public void test_cachedDeparturesShownBeforeResponse() throws Exception {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+
+        // Move the mock departures to the future so the cache does not drop them
+        String now = String.valueOf(System.currentTimeMillis() / 1000);
+        JSONArray stoptimes = new JSONObject(MockData.MOCK_DEPARTURES.replace("1469826000", now))
+            .getJSONObject("data")
+            .getJSONObject("stop")
+            .getJSONArray("stoptimesWithoutPatterns");
+        Vector<Departure> departures = new Vector<>();
+        for (int i = 0; i < stoptimes.length(); i++) {
+            departures.add(Departure.fromJsonObject(stoptimes.getJSONObject(i)));
+        }
+        DepartureCache.getInstance().put(STOP_ID, "STOP", Helpers.getNumDepartures(ctx),
+            Helpers.getShowArrivalsToTerminus(ctx), departures);
+
+        Intent intent = new Intent(ctx, DepartureListActivity.class);
+        intent.putExtra(DepartureListActivity.EXTRA_STOP_ID, STOP_ID);
+        intent.putExtra(DepartureListActivity.EXTRA_STOP_NAME, "Lauttasaari");
+        intent.putExtra(DepartureListActivity.EXTRA_STOP_TYPE, "STOP");
+        mActivityRule.launchActivity(intent);
+
+        onView(withId(R.id.departure_list_recycler))
+            .check(matches(allOf(isDisplayed(), hasDescendant(withText("Westendinasema")))));
+        onView(withId(R.id.loading_text)).check(doesNotExist());
+    }
+}
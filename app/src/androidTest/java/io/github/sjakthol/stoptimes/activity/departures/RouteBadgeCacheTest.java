@@ -0,0 +1,78 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Color;
+import android.graphics.drawable.BitmapDrawable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class RouteBadgeCacheTest {
+    private RouteBadgeCache mCache;
+    private Resources mResources;
+
+    @Before
+    public void setUp() {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        mResources = ctx.getResources();
+        mCache = RouteBadgeCache.getInstance(ctx);
+        mCache.onLowMemory();
+    }
+
+    private BitmapDrawable getBadge(String route, int color) {
+        return (BitmapDrawable) mCache.getBadge(mResources, route, color, 14, 40);
+    }
+
+    @Test
+    public void test_newDrawableSharesBitmap() {
+        BitmapDrawable a = getBadge("550", Color.BLUE);
+        BitmapDrawable b = getBadge("550", Color.BLUE);
+
+        assertThat(b, not(sameInstance(a)));
+        assertThat(b.getBitmap(), sameInstance(a.getBitmap()));
+        assertThat(a.getBitmap().getWidth(), is(40));
+        assertThat(a.getBitmap().getHeight(), is(40));
+    }
+
+    @Test
+    public void test_drawableStateNotShared() {
+        BitmapDrawable a = getBadge("550", Color.BLUE);
+        BitmapDrawable b = getBadge("550", Color.BLUE);
+
+        // A view sets the bounds and may change the alpha of its drawable
+        a.setBounds(0, 0, 10, 10);
+        a.setAlpha(64);
+        b.setBounds(0, 0, 40, 40);
+
+        assertThat(a.getBounds().width(), is(10));
+        assertThat(b.getBounds().width(), is(40));
+        assertThat(b.getPaint().getAlpha(), is(255));
+    }
+
+    @Test
+    public void test_keyIncludesRouteAndColor() {
+        BitmapDrawable badge = getBadge("550", Color.BLUE);
+
+        assertThat(getBadge("551", Color.BLUE).getBitmap(), not(sameInstance(badge.getBitmap())));
+        assertThat(getBadge("550", Color.RED).getBitmap(), not(sameInstance(badge.getBitmap())));
+    }
+
+    @Test
+    public void test_trimMemory() {
+        BitmapDrawable badge = getBadge("550", Color.BLUE);
+
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertThat(getBadge("550", Color.BLUE).getBitmap(), sameInstance(badge.getBitmap()));
+
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertThat(getBadge("550", Color.BLUE).getBitmap(), not(sameInstance(badge.getBitmap())));
+    }
+}
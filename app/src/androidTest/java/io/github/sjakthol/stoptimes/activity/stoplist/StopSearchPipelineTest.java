@@ -0,0 +1,196 @@
+package io.github.sjakthol.stoptimes.activity.stoplist;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.db.DatabaseTestCase;
+import io.github.sjakthol.stoptimes.db.StopListContract;
+import io.github.sjakthol.stoptimes.db.StopSearchIndex;
+import io.github.sjakthol.stoptimes.digitransit.models.Stop;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class StopSearchPipelineTest extends DatabaseTestCase {
+    private static final String[] COLUMNS = {
+        StopListContract.Stop.COLUMN_NAME_GTFS_ID,
+        StopListContract.Stop.COLUMN_NAME_NAME,
+        StopListContract.Stop.COLUMN_NAME_CODE,
+        StopListContract.Stop.COLUMN_NAME_IS_FAVORITE
+    };
+
+    private final List<List<String>> mResults = Collections.synchronizedList(new ArrayList<List<String>>());
+    private final CountDownLatch mResult = new CountDownLatch(1);
+    private StopSearchPipeline mPipeline;
+    private volatile Throwable mError;
+
+    @Before
+    public void setUp() {
+        setup_insertData();
+        StopSearchIndex.rebuild(mDbHelper.getWritableDatabase());
+
+        mPipeline = new StopSearchPipeline(mDbHelper, new StopSearchPipeline.Listener() {
+            @Override
+            public void onSearchResult(Cursor cursor) {
+                mResults.add(ids(cursor));
+                cursor.close();
+                mResult.countDown();
+            }
+
+            @Override
+            public void onSearchError(Throwable error) {
+                mError = error;
+                mResult.countDown();
+            }
+        });
+    }
+
+    private static List<String> ids(Cursor cursor) {
+        List<String> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(Stop.fromCursor(cursor).getId());
+        }
+
+        cursor.moveToPosition(-1);
+        return ids;
+    }
+
+    private static List<String> gtfsIds(Cursor cursor) {
+        List<String> ids = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getString(0));
+        }
+
+        cursor.close();
+        return ids;
+    }
+
+    private void onMainThread(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+
+    /**
+     * Wait for the first result and long enough for any other search to finish.
+     */
+    private void awaitResults() throws InterruptedException {
+        assertThat("got a result", mResult.await(5, TimeUnit.SECONDS), is(true));
+        Thread.sleep(2 * StopSearchPipeline.DEBOUNCE_MILLIS);
+        assertThat("no errors occurred", mError, is(nullValue()));
+    }
+
+    @Test
+    public void test_debounce() throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline.search("K", "20", false);
+                mPipeline.search("Ka", "20", false);
+                mPipeline.search("e10", "20", false);
+            }
+        });
+
+        awaitResults();
+        assertThat("only the last query was searched", mResults.size(), is(1));
+        assertThat(mResults.get(0), is(Collections.singletonList("HSL:2111552")));
+    }
+
+    @Test
+    public void test_supersededSearchNotDelivered() throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline.searchNow("Kamppi", "20", false);
+                mPipeline.searchNow("e10", "20", false);
+            }
+        });
+
+        awaitResults();
+        assertThat("stale result dropped", mResults.size(), is(1));
+        assertThat(mResults.get(0), is(Collections.singletonList("HSL:2111552")));
+    }
+
+    @Test
+    public void test_cancel() throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline.search("Kamppi", "20", false);
+                mPipeline.cancel();
+            }
+        });
+
+        assertThat(mResult.await(2 * StopSearchPipeline.DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS), is(false));
+        assertThat(mResults.size(), is(0));
+    }
+
+    @Test
+    public void test_narrowsCompleteResult() throws InterruptedException {
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline.searchNow("Kamppi", "20", false);
+            }
+        });
+        awaitResults();
+
+        // Narrowing delivers the result without going through the database or the debounce
+        onMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mPipeline.search("Kamppi 2", "20", false);
+            }
+        });
+
+        assertThat(mResults.size(), is(2));
+        assertThat(mResults.get(0), is(Arrays.asList("HSL:1040602", "HSL:6150218")));
+        assertThat(mResults.get(1), is(Collections.singletonList("HSL:6150218")));
+    }
+
+    @Test
+    public void test_snapshotNarrow() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] {"HSL:1", null, "K001", 0L});
+        cursor.addRow(new Object[] {"HSL:2", "Kamppi", "0013", 1L});
+        cursor.addRow(new Object[] {"HSL:3", "Kamppi 2", "Ki1518", 0L});
+        cursor.addRow(new Object[] {"HSL:4", "Leppävaara", "E1058", 0L});
+        cursor.addRow(new Object[] {"HSL:5", "Itäkeskus", "K003", 0L});
+        cursor.addRow(new Object[] {"HSL:6", null, "K002", 0L});
+
+        StopSearchPipeline.Snapshot snapshot = StopSearchPipeline.Snapshot.of("", "20", false, cursor);
+        assertThat("cursor rewound", cursor.getPosition(), is(-1));
+        assertThat(snapshot.canNarrow("k", "20", false), is(true));
+        assertThat("different limit", snapshot.canNarrow("k", "10", false), is(false));
+        assertThat("citybikes included", snapshot.canNarrow("k", "20", true), is(false));
+
+        // Name matches come first, then favorites and stops without a name before named ones
+        StopSearchPipeline.Snapshot narrowed = snapshot.narrow("k");
+        assertThat(gtfsIds(narrowed.toCursor()),
+            is(Arrays.asList("HSL:2", "HSL:3", "HSL:1", "HSL:6", "HSL:5")));
+        assertThat(narrowed.canNarrow("ka", "20", false), is(true));
+        assertThat("not an extension", narrowed.canNarrow("e", "20", false), is(false));
+    }
+
+    @Test
+    public void test_incompleteSnapshotNotNarrowed() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[] {"HSL:1", "Kamppi", "0013", 0L});
+        cursor.addRow(new Object[] {"HSL:2", "Kamppi 2", "Ki1518", 0L});
+
+        // The limit was reached so there may be more matches in the database
+        StopSearchPipeline.Snapshot snapshot = StopSearchPipeline.Snapshot.of("ka", "2", false, cursor);
+        assertThat(snapshot.canNarrow("kam", "2", false), is(false));
+    }
+}
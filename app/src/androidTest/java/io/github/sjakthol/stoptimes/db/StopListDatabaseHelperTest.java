@@ -1,11 +1,14 @@
 package io.github.sjakthol.stoptimes.db;
 
 
+import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static io.github.sjakthol.stoptimes.db.StopListContract.Stop.STOPS_TABLE_NAME;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
 
 @RunWith(AndroidJUnit4.class)
 public class StopListDatabaseHelperTest extends DatabaseTestCase {
@@ -15,4 +18,11 @@ public class StopListDatabaseHelperTest extends DatabaseTestCase {
         mDbHelper.getWritableDatabase().rawQuery("SELECT * FROM " + STOPS_TABLE_NAME, null);
         // If we got this far, the database seems to be correctly initialized
     }
+
+    @Test
+    public void test_sharedInstance() {
+        StopListDatabaseHelper helper = StopListDatabaseHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        assertThat("helper is shared", StopListDatabaseHelper.getInstance(InstrumentationRegistry.getContext()),
+            sameInstance(helper));
+    }
 }
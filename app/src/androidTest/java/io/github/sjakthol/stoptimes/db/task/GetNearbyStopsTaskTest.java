@@ -4,6 +4,8 @@ import android.database.Cursor;
 import android.location.Location;
 import android.support.test.runner.AndroidJUnit4;
 import io.github.sjakthol.stoptimes.db.DatabaseTestCase;
+import io.github.sjakthol.stoptimes.db.SpatialGrid;
+import io.github.sjakthol.stoptimes.db.StopListContract;
 import io.github.sjakthol.stoptimes.digitransit.models.Stop;
 import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
 import org.junit.Test;
@@ -21,7 +23,22 @@ public class GetNearbyStopsTaskTest extends DatabaseTestCase {
     @Test
     public void test_getNearby() throws InterruptedException {
         setup_insertData();
+        assertNearby();
+    }
+
+    @Test
+    public void test_getNearbyFromGrid() throws InterruptedException {
+        setup_insertData();
+
+        // Place the stops into the grid like the database update would
+        mDbHelper.getWritableDatabase().execSQL("UPDATE " + StopListContract.Stop.STOPS_TABLE_NAME + " SET " +
+            StopListContract.Stop.COLUMN_NAME_CELL_LAT + " = " + SpatialGrid.SQL_LAT_CELL + ", " +
+            StopListContract.Stop.COLUMN_NAME_CELL_LON + " = " + SpatialGrid.SQL_LON_CELL);
+
+        assertNearby();
+    }
 
+    private void assertNearby() throws InterruptedException {
         Location loc = new Location("dummy");
         loc.setLongitude(24.93);
         loc.setLatitude(60.16);
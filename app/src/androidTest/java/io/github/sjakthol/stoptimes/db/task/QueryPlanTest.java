@@ -0,0 +1,107 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.db.DatabaseTestCase;
+import io.github.sjakthol.stoptimes.db.StopListContract;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks the query plans of the stop queries so that a query that starts scanning a whole
+ * table, e.g. after a schema or query change, is caught.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest extends DatabaseTestCase {
+    /**
+     * Matches full scans in both the old (SCAN TABLE x) and new (SCAN x) plan formats. Walking
+     * a whole covering index is a full scan as well.
+     */
+    private static final Pattern SCAN = Pattern.compile("^SCAN (?:TABLE )?(\\w+).*$");
+
+    private static final List<String> TABLES = Arrays.asList(
+        StopListContract.Stop.STOPS_TABLE_NAME,
+        StopListContract.Stop.STATIONS_TABLE_NAME,
+        StopListContract.Stop.FAVORITES_TABLE_NAME,
+        StopListContract.Stop.DEPARTURE_FILTERS_TABLE_NAME
+    );
+
+    /**
+     * Get the full table scans of a query.
+     *
+     * @param sql the query
+     * @param allowed tables that the query is expected to read in full
+     * @return the plan lines of unexpected full table scans
+     */
+    private List<String> getFullScans(String sql, String... allowed) {
+        String[] args = new String[sql.length() - sql.replace("?", "").length()];
+        Arrays.fill(args, "1");
+
+        List<String> scans = new ArrayList<>();
+        Cursor plan = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                String line = plan.getString(detail);
+                Matcher m = SCAN.matcher(line);
+                if (m.matches() && TABLES.contains(m.group(1)) && !Arrays.asList(allowed).contains(m.group(1))) {
+                    scans.add(line);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+
+        return scans;
+    }
+
+    @Test
+    public void test_queryStops() {
+        // A substring match cannot use an index; stations are few enough to be read in full
+        assertThat(getFullScans(QueryStopsTask.SQL_QUERY_STOPS, StopListContract.Stop.STATIONS_TABLE_NAME),
+            is(empty()));
+    }
+
+    @Test
+    public void test_searchStops() {
+        assertThat(getFullScans(SearchStopsTask.SQL_SEARCH_STOPS), is(empty()));
+    }
+
+    @Test
+    public void test_favoriteStops() {
+        // Every favorite is part of the result so the favorites drive the join
+        assertThat(getFullScans(GetFavoriteStopsTask.GET_FAVORITES_SQL, StopListContract.Stop.FAVORITES_TABLE_NAME),
+            is(empty()));
+    }
+
+    @Test
+    public void test_nearbyStops() {
+        assertThat(getFullScans(GetNearbyStopsTask.SQL_QUERY_BOUNDED), is(empty()));
+        assertThat(getFullScans(GetNearbyStopsTask.buildIndexQuery("1,2", "3")), is(empty()));
+    }
+
+    @Test
+    public void test_nearbyStopsFallback() {
+        // The fallback reads every stop and station by design
+        assertThat(getFullScans(GetNearbyStopsTask.SQL_QUERY,
+            StopListContract.Stop.STOPS_TABLE_NAME, StopListContract.Stop.STATIONS_TABLE_NAME), is(empty()));
+    }
+
+    @Test
+    public void test_departureFilters() {
+        assertThat(getFullScans(GetDepartureFiltersTask.GET_DEPARTURE_FILTERS_SQL), is(empty()));
+    }
+
+    private static List<String> empty() {
+        return new ArrayList<>();
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.db.DatabaseTestCase;
+import io.github.sjakthol.stoptimes.db.StopSearchIndex;
+import io.github.sjakthol.stoptimes.digitransit.models.Stop;
+import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class SearchStopsTaskTest extends DatabaseTestCase {
+
+    @Test
+    public void test_searchStopsTask() throws InterruptedException {
+        setup_insertData();
+        StopSearchIndex.rebuild(mDbHelper.getWritableDatabase());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        new SearchStopsTask(mDbHelper) {
+            @Override
+            protected void onPostExecute(AsyncTaskResult<Cursor> result) {
+                super.onPostExecute(result);
+
+                assertThat("No errors occurred", result.getError(), is(not(notNullValue())));
+                assertThat("Task succeeded", result.isSuccess(), is(true));
+
+                Cursor res = result.getResult();
+                assertThat("Got results", res, is(notNullValue()));
+                assertThat("Found two stops", res.getCount(), is(2));
+
+                assertThat(res.moveToFirst(), is(true));
+                assertThat("Exact match first", Stop.fromCursor(res).getId(), is("HSL:1040602"));
+
+                res.close();
+                latch.countDown();
+            }
+        }.execute("Kamppi", "20", false);
+
+        latch.await();
+    }
+
+    @Test
+    public void test_searchStopsTaskByCode() throws InterruptedException {
+        setup_insertData();
+        StopSearchIndex.rebuild(mDbHelper.getWritableDatabase());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        new SearchStopsTask(mDbHelper) {
+            @Override
+            protected void onPostExecute(AsyncTaskResult<Cursor> result) {
+                super.onPostExecute(result);
+
+                assertThat("Task succeeded", result.isSuccess(), is(true));
+
+                Cursor res = result.getResult();
+                assertThat("Found one stop", res.getCount(), is(1));
+
+                assertThat(res.moveToFirst(), is(true));
+                assertThat("Matched by code prefix", Stop.fromCursor(res).getId(), is("HSL:2111552"));
+
+                res.close();
+                latch.countDown();
+            }
+        }.execute("e10", "20", false);
+
+        latch.await();
+    }
+}
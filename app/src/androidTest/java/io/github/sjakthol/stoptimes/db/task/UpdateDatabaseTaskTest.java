@@ -2,9 +2,11 @@ package io.github.sjakthol.stoptimes.db.task;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.JsonReader;
 import io.github.sjakthol.stoptimes.db.DatabaseTestCase;
 import io.github.sjakthol.stoptimes.db.StopListContract;
 import io.github.sjakthol.stoptimes.digitransit.models.Stop;
@@ -15,8 +17,8 @@ import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
 
@@ -172,15 +174,10 @@ public class UpdateDatabaseTaskTest extends DatabaseTestCase {
         final CountDownLatch latch = new CountDownLatch(1);
         new UpdateDatabaseTask(InstrumentationRegistry.getTargetContext(), mDbHelper) {
             @Override
-            public Map<String, Vector<Stop>> _fetchStops() {
-                Vector<Stop> stops = new Vector<>(3);
-                stops.addElement(newStop);
-                stops.addElement(oldStop);
-                stops.addElement(updatedStop);
-                HashMap<String, Vector<Stop>> data = new HashMap<>(2);
-                data.put("stops", stops);
-                data.put("stations", new Vector<Stop>());
-                return data;
+            void fetchStops(StopWriter writer) {
+                writer.write(STOPS_TABLE_NAME, newStop);
+                writer.write(STOPS_TABLE_NAME, oldStop);
+                writer.write(STOPS_TABLE_NAME, updatedStop);
             }
 
             @Override
@@ -209,6 +206,53 @@ public class UpdateDatabaseTaskTest extends DatabaseTestCase {
         assertThat("Three stops parsed", stops.size(), is(3));
     }
 
+    @Test
+    public void test_readStopList() throws IOException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            StopWriter writer = new StopWriter(db);
+            UpdateDatabaseTask.readStopList(new JsonReader(new StringReader(SAMPLE_RESPONSE)), writer);
+            writer.close();
+
+            Cursor cur = db.rawQuery("SELECT " + COLUMN_NAME_GTFS_ID + " FROM " + STOPS_TABLE_NAME, null);
+            assertThat("Three stops streamed into the db", cur.getCount(), is(3));
+            cur.close();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Test
+    public void test_unchangedStopsAreNotRewritten() throws IOException {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            StopWriter writer = new StopWriter(db);
+            UpdateDatabaseTask.readStopList(new JsonReader(new StringReader(SAMPLE_RESPONSE)), writer);
+            writer.deleteRemoved();
+            assertThat("Initial dataset recorded", writer.recordDatasetVersion(), is(true));
+            writer.close();
+
+            // total_changes() counts every row written by the connection regardless of whether
+            // the writer replaces rows or updates them in place
+            String version = StopWriter.getDatasetVersion(db);
+            String query = "SELECT total_changes()";
+            long before = DatabaseUtils.longForQuery(db, query, null);
+
+            writer = new StopWriter(db);
+            UpdateDatabaseTask.readStopList(new JsonReader(new StringReader(SAMPLE_RESPONSE)), writer);
+            writer.deleteRemoved();
+            assertThat("Unchanged dataset detected", writer.recordDatasetVersion(), is(false));
+            writer.close();
+
+            assertThat("Unchanged rows were not written", DatabaseUtils.longForQuery(db, query, null), is(before));
+            assertThat("Dataset version kept", StopWriter.getDatasetVersion(db), is(version));
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Test
     public void test_updateDeletesMissingStops() throws JSONException, InterruptedException {
         runUpdateTest(new AssertHandler() {
@@ -0,0 +1,100 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Vector;
+
+import static io.github.sjakthol.stoptimes.digitransit.MockData.NUM_MOCK_DEPARTURES;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class DepartureCacheTest {
+    private static Vector<Departure> setup_departures() throws Exception {
+        JSONObject resp = new JSONObject(MockData.MOCK_DEPARTURES);
+        return DigitransitApi.parseDepartureList(resp, true);
+    }
+
+    private static long setup_firstDeparture(Vector<Departure> departures) {
+        long first = Long.MAX_VALUE;
+        for (Departure departure : departures) {
+            first = Math.min(first, departure.getRealtimeDeparture() * 1000);
+        }
+        return first;
+    }
+
+    @Test
+    public void test_getReturnsCachedDepartures() throws Exception {
+        Vector<Departure> departures = setup_departures();
+        long now = setup_firstDeparture(departures);
+
+        DepartureCache cache = new DepartureCache();
+        cache.put("HSL:1234", "STOP", 20, true, departures, now);
+
+        Vector<Departure> cached = cache.get("HSL:1234", "STOP", 20, true, now);
+        assertThat("got departures", cached, is(notNullValue()));
+        assertThat("got all departures", cached.size(), is(NUM_MOCK_DEPARTURES));
+    }
+
+    @Test
+    public void test_getMissesOtherParameters() throws Exception {
+        Vector<Departure> departures = setup_departures();
+        long now = setup_firstDeparture(departures);
+
+        DepartureCache cache = new DepartureCache();
+        cache.put("HSL:1234", "STOP", 20, true, departures, now);
+
+        assertThat("other stop", cache.get("HSL:5678", "STOP", 20, true, now), is(nullValue()));
+        assertThat("other count", cache.get("HSL:1234", "STOP", 10, true, now), is(nullValue()));
+        assertThat("other terminus", cache.get("HSL:1234", "STOP", 20, false, now), is(nullValue()));
+    }
+
+    @Test
+    public void test_getDropsDepartedEntries() throws Exception {
+        Vector<Departure> departures = setup_departures();
+        long now = setup_firstDeparture(departures);
+
+        DepartureCache cache = new DepartureCache();
+        cache.put("HSL:1234", "STOP", 20, true, departures, now);
+
+        Vector<Departure> cached = cache.get("HSL:1234", "STOP", 20, true, now + 1);
+        if (cached != null) {
+            for (Departure departure : cached) {
+                assertThat("departure has not left",
+                    departure.getRealtimeDeparture() * 1000 >= now + 1, is(true));
+            }
+        }
+    }
+
+    @Test
+    public void test_getExpiresEntries() throws Exception {
+        Vector<Departure> departures = setup_departures();
+        long now = setup_firstDeparture(departures) - DepartureCache.TTL_MILLIS - 1000;
+
+        DepartureCache cache = new DepartureCache();
+        cache.put("HSL:1234", "STOP", 20, true, departures, now);
+
+        assertThat("entry expired", cache.get("HSL:1234", "STOP", 20, true, now + DepartureCache.TTL_MILLIS + 1),
+            is(nullValue()));
+        assertThat("expired entry removed", cache.get("HSL:1234", "STOP", 20, true, now), is(nullValue()));
+    }
+
+    @Test
+    public void test_evictsLeastRecentlyUsed() throws Exception {
+        Vector<Departure> departures = setup_departures();
+        long now = setup_firstDeparture(departures);
+
+        DepartureCache cache = new DepartureCache();
+        for (int i = 0; i <= DepartureCache.MAX_ENTRIES; i++) {
+            cache.put("HSL:" + i, "STOP", 20, true, departures, now);
+        }
+
+        assertThat("eldest entry evicted", cache.get("HSL:0", "STOP", 20, true, now), is(nullValue()));
+        assertThat("newest entry kept",
+            cache.get("HSL:" + DepartureCache.MAX_ENTRIES, "STOP", 20, true, now), is(notNullValue()));
+    }
+}
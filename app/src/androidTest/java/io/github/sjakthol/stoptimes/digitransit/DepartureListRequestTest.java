@@ -0,0 +1,79 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import android.support.test.runner.AndroidJUnit4;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Response;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Vector;
+
+import static io.github.sjakthol.stoptimes.digitransit.MockData.NUM_MOCK_DEPARTURES;
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class DepartureListRequestTest {
+    @Test
+    public void test_parseMatchesJsonParser() throws Exception {
+        Vector<Departure> streamed = DepartureListRequest.parse(new StringReader(MockData.MOCK_DEPARTURES), true);
+        Vector<Departure> parsed = DigitransitApi.parseDepartureList(new JSONObject(MockData.MOCK_DEPARTURES), true);
+
+        assertThat("correct number of departures", streamed.size(), is(NUM_MOCK_DEPARTURES));
+        assertThat("same departures as the JSON parser", streamed, is(parsed));
+    }
+
+    @Test
+    public void test_parseStation() throws Exception {
+        String response = MockData.MOCK_DEPARTURES.replace(
+            "\"stop\": {      \"stoptimesWithoutPatterns\"", "\"station\": {      \"stoptimesWithoutPatterns\"");
+        assertThat("response has a station", response, containsString("\"station\""));
+
+        Vector<Departure> departures = DepartureListRequest.parse(new StringReader(response), true);
+        assertThat("correct number of departures", departures.size(), is(NUM_MOCK_DEPARTURES));
+    }
+
+    @Test
+    public void test_parseFiltersTerminus() throws Exception {
+        String response = MockData.MOCK_DEPARTURES.replaceFirst("\"SCHEDULED\"", "\"NONE\"");
+        Vector<Departure> streamed = DepartureListRequest.parse(new StringReader(response), false);
+        Vector<Departure> parsed = DigitransitApi.parseDepartureList(new JSONObject(response), false);
+
+        assertThat("terminus arrival dropped", streamed.size(), is(NUM_MOCK_DEPARTURES - 1));
+        assertThat("same departures as the JSON parser", streamed, is(parsed));
+    }
+
+    @Test
+    public void test_parseAliasedStoptimes() throws Exception {
+        JSONObject stop = new JSONObject(MockData.MOCK_DEPARTURES).getJSONObject("data").getJSONObject("stop");
+        JSONObject aliased = new JSONObject()
+            .put("recent", stop.getJSONArray("stoptimesWithoutPatterns"))
+            .put("later", stop.getJSONArray("stoptimesWithoutPatterns"));
+        String response = new JSONObject().put("data", new JSONObject().put("stop", aliased)).toString();
+
+        Vector<Departure> departures = DepartureListRequest.parse(new StringReader(response), true);
+        assertThat("all lists are read", departures.size(), is(2 * NUM_MOCK_DEPARTURES));
+    }
+
+    @Test(expected = IOException.class)
+    public void test_parseUnknownStop() throws Exception {
+        DepartureListRequest.parse(new StringReader("{\"data\": {\"stop\": null}}"), true);
+    }
+
+    @Test
+    public void test_parseErrorKeepsResponse() throws Exception {
+        String body = "{\"errors\": [{\"message\": \"PersistedQueryNotFound\"}]}";
+        DepartureListRequest req = new DepartureListRequest("http://localhost/", "{}", true, null, null);
+        Response<Vector<Departure>> res = req.parseNetworkResponse(new NetworkResponse(body.getBytes("UTF-8")));
+
+        assertThat("request failed", res.isSuccess(), is(false));
+        assertThat("error has a JSON cause", res.error.getCause() instanceof JSONException, is(true));
+        assertThat("error has the response", res.error.networkResponse, is(notNullValue()));
+        assertThat("unknown query detected", DigitransitApi.isPersistedQueryNotFound(res.error), is(true));
+    }
+}
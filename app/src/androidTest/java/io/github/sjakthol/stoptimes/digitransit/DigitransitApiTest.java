@@ -2,19 +2,27 @@ package io.github.sjakthol.stoptimes.digitransit;
 
 import android.support.test.InstrumentationRegistry;
 import android.support.test.runner.AndroidJUnit4;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ServerError;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.RequestFuture;
 import io.github.sjakthol.stoptimes.digitransit.models.CitybikeStatus;
 import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import okhttp3.mockwebserver.Dispatcher;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.CountDownLatch;
 
@@ -24,6 +32,18 @@ import static org.hamcrest.MatcherAssert.*;
 
 @RunWith(AndroidJUnit4.class)
 public class DigitransitApiTest {
+    @Before
+    public void setUp() {
+        // The registry is static; start every test with persisted queries off and no query
+        // known to the server
+        QueryRegistry.reset();
+    }
+
+    @After
+    public void tearDown() {
+        QueryRegistry.reset();
+    }
+
     @Test
     public void test_buildGraphQLQueryNoVariables() throws Exception {
         JSONObject q = DigitransitApi.buildGraphQLQuery("query", null);
@@ -53,6 +73,21 @@ public class DigitransitApiTest {
         assertThat("correct number of departures", departures.size(), is(NUM_MOCK_DEPARTURES));
     }
 
+    @Test
+    public void test_parsedDepartureIdentity() throws Exception {
+        Vector<Departure> first = DigitransitApi.parseDepartureList(new JSONObject(MockData.MOCK_DEPARTURES), true);
+        Vector<Departure> second = DigitransitApi.parseDepartureList(new JSONObject(MockData.MOCK_DEPARTURES), true);
+
+        for (int i = 0; i < first.size(); i++) {
+            assertThat("same departure is identified", first.get(i).isSameDeparture(second.get(i)), is(true));
+            assertThat("same departure is equal", first.get(i), is(second.get(i)));
+            assertThat("hash codes match", first.get(i).hashCode(), is(second.get(i).hashCode()));
+        }
+
+        assertThat("different routes differ", first.get(0).isSameDeparture(first.get(1)), is(false));
+        assertThat("different routes are not equal", first.get(0), is(not(first.get(1))));
+    }
+
     @Test
     public void test_getDepartures() throws Exception {
         final MockWebServer server = setup_mockServer(
@@ -105,6 +140,260 @@ public class DigitransitApiTest {
 
     }
 
+    @Test
+    public void test_getDeparturesPersistedQueryFallback() throws Exception {
+        QueryRegistry.setPersistedQueriesEnabled(true);
+
+        final MockWebServer server = setup_mockServer(
+            new MockResponse()
+                .addHeader("Content-Type", "application/json")
+                .setBody(MockData.MOCK_DEPARTURES),
+            new MockResponse()
+                .setResponseCode(400)
+                .addHeader("Content-Type", "application/json")
+                .setBody("{\"errors\": [{\"message\": \"PersistedQueryNotFound\"}]}"),
+            new MockResponse()
+                .addHeader("Content-Type", "application/json")
+                .setBody(MockData.MOCK_DEPARTURES)
+        );
+
+        DigitransitApi.API_GRAPHQL = server.url("GRAPHQL").toString();
+
+        for (int i = 0; i < 2; i++) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            DigitransitApi.getDepartures(
+                InstrumentationRegistry.getTargetContext(),
+                "HSL:1234", "STOP",
+                10, true,
+                new DigitransitApi.DepartureResponseListener() {
+                    @Override
+                    public void onDeparturesAvailable(Vector<Departure> departures) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onDepartureLoadError(VolleyError error) {
+                        assertThat("unexpected error " + error.toString(), true, is(false));
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onCitybikeStatusAvailable(CitybikeStatus status) {
+
+                    }
+                });
+
+            latch.await();
+        }
+
+        JSONObject first = new JSONObject(server.takeRequest().getBody().readUtf8());
+        assertThat("first request has the text", first.has("query"), is(true));
+        assertThat("first request has the hash", first.has("extensions"), is(true));
+
+        JSONObject second = new JSONObject(server.takeRequest().getBody().readUtf8());
+        assertThat("second request has no text", second.has("query"), is(false));
+        assertThat("second request has the hash", first.getJSONObject("extensions").toString(),
+            is(second.getJSONObject("extensions").toString()));
+
+        JSONObject retry = new JSONObject(server.takeRequest().getBody().readUtf8());
+        assertThat("retry has the text", retry.getString("query"), is(first.getString("query")));
+        assertThat("persisted queries are disabled", retry.has("extensions"), is(false));
+    }
+
+    @Test
+    public void test_getDeparturesHashOnlyServerError() throws Exception {
+        QueryRegistry.setPersistedQueriesEnabled(true);
+
+        final MockWebServer server = setup_mockServer(
+            new MockResponse()
+                .addHeader("Content-Type", "application/json")
+                .setBody(MockData.MOCK_DEPARTURES),
+            new MockResponse()
+                .addHeader("Content-Type", "application/json")
+                .setStatus("500 Internal Server Error")
+                .setBody("{}")
+        );
+
+        DigitransitApi.API_GRAPHQL = server.url("GRAPHQL").toString();
+
+        final boolean[] failed = new boolean[2];
+        for (int i = 0; i < 2; i++) {
+            final int request = i;
+            final CountDownLatch latch = new CountDownLatch(1);
+            DigitransitApi.getDepartures(
+                InstrumentationRegistry.getTargetContext(),
+                "HSL:1234", "STOP",
+                10, true,
+                new DigitransitApi.DepartureResponseListener() {
+                    @Override
+                    public void onDeparturesAvailable(Vector<Departure> departures) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onDepartureLoadError(VolleyError error) {
+                        failed[request] = true;
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onCitybikeStatusAvailable(CitybikeStatus status) {
+
+                    }
+                });
+
+            latch.await();
+        }
+
+        assertThat("first request succeeded", failed[0], is(false));
+        assertThat("error was delivered", failed[1], is(true));
+        assertThat("failed request was not retried", server.getRequestCount(), is(2));
+        assertThat("persisted queries are still enabled", QueryRegistry.isPersistedQueriesEnabled(), is(true));
+    }
+
+    @Test
+    public void test_getDeparturesWithoutPersistedQueries() throws Exception {
+        // Like the Digitransit API, the server does not support persisted queries and rejects
+        // requests without the query text with a generic GraphQL error
+        final MockWebServer server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                try {
+                    if (!new JSONObject(request.getBody().clone().readUtf8()).has("query")) {
+                        return new MockResponse()
+                            .addHeader("Content-Type", "application/json")
+                            .setBody("{\"errors\": [{\"message\": \"Must provide query string.\"}]}");
+                    }
+                } catch (JSONException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+
+                return new MockResponse()
+                    .addHeader("Content-Type", "application/json")
+                    .setBody(MockData.MOCK_DEPARTURES);
+            }
+        });
+
+        DigitransitApi.API_GRAPHQL = server.url("GRAPHQL").toString();
+
+        final boolean[] failed = new boolean[1];
+        for (int i = 0; i < 3; i++) {
+            final CountDownLatch latch = new CountDownLatch(1);
+            DigitransitApi.getDepartures(
+                InstrumentationRegistry.getTargetContext(),
+                "HSL:1234", "STOP",
+                10, true,
+                new DigitransitApi.DepartureResponseListener() {
+                    @Override
+                    public void onDeparturesAvailable(Vector<Departure> departures) {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onDepartureLoadError(VolleyError error) {
+                        failed[0] = true;
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void onCitybikeStatusAvailable(CitybikeStatus status) {
+
+                    }
+                });
+
+            latch.await();
+        }
+
+        assertThat("every request succeeded", failed[0], is(false));
+        assertThat("no retries", server.getRequestCount(), is(3));
+        for (int i = 0; i < 3; i++) {
+            JSONObject req = new JSONObject(server.takeRequest().getBody().readUtf8());
+            assertThat("request has the text", req.has("query"), is(true));
+            assertThat("request has no hash", req.has("extensions"), is(false));
+        }
+
+        server.shutdown();
+    }
+
+    @Test
+    public void test_isPersistedQueryNotFound() throws Exception {
+        assertThat("message", DigitransitApi.isPersistedQueryNotFound(setup_errorResponse(
+            "{\"errors\": [{\"message\": \"PersistedQueryNotFound\"}]}")), is(true));
+        assertThat("code", DigitransitApi.isPersistedQueryNotFound(setup_errorResponse(
+            "{\"errors\": [{\"message\": \"?\", \"extensions\": {\"code\": \"PERSISTED_QUERY_NOT_FOUND\"}}]}")),
+            is(true));
+        assertThat("other error", DigitransitApi.isPersistedQueryNotFound(setup_errorResponse(
+            "{\"errors\": [{\"message\": \"Internal error\"}]}")), is(false));
+        assertThat("no errors", DigitransitApi.isPersistedQueryNotFound(setup_errorResponse("{}")), is(false));
+        assertThat("not JSON", DigitransitApi.isPersistedQueryNotFound(setup_errorResponse("NOT JSON")), is(false));
+        assertThat("no response", DigitransitApi.isPersistedQueryNotFound(new VolleyError()), is(false));
+    }
+
+    @Test
+    public void test_buildBatchDeparturesQuery() throws Exception {
+        String query = DigitransitApi.buildBatchDeparturesQuery(Arrays.asList("STOP", "STATION"));
+        assertThat("Declares all variables", query, containsString("($departures: Int, $id0: String!, $id1: String!)"));
+        assertThat("Aliases the stop", query, containsString("s0: stop(id: $id0)"));
+        assertThat("Aliases the station", query, containsString("s1: station(id: $id1)"));
+    }
+
+    @Test
+    public void test_getDeparturesForStops() throws Exception {
+        // Serve the same mock departures under both aliases
+        JSONObject stop = new JSONObject(MockData.MOCK_DEPARTURES).getJSONObject("data").getJSONObject("stop");
+        JSONObject data = new JSONObject();
+        data.put("s0", stop);
+        data.put("s1", stop);
+
+        final MockWebServer server = setup_mockServer(
+            new MockResponse()
+                .addHeader("Content-Type", "application/json")
+                .setBody(new JSONObject().put("data", data).toString())
+        );
+
+        DigitransitApi.API_GRAPHQL = server.url("GRAPHQL").toString();
+
+        Map<String, String> stops = new LinkedHashMap<>();
+        stops.put("HSL:1234", "STOP");
+        stops.put("HSL:5678", "STATION");
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        DigitransitApi.getDeparturesForStops(
+            InstrumentationRegistry.getTargetContext(),
+            stops, 10, true,
+            new DigitransitApi.MultiDepartureResponseListener() {
+                @Override
+                public void onDeparturesAvailable(Map<String, Vector<Departure>> departures) {
+                    assertThat("got both stops", departures.size(), is(2));
+                    assertThat("got departures for stop", departures.get("HSL:1234").size(), is(NUM_MOCK_DEPARTURES));
+                    assertThat("got departures for station", departures.get("HSL:5678").size(), is(NUM_MOCK_DEPARTURES));
+
+                    try {
+                        RecordedRequest req = server.takeRequest();
+                        JSONObject body = new JSONObject(req.getBody().readUtf8());
+                        JSONObject var = body.getJSONObject("variables");
+
+                        assertThat("body has first stop", var.getString("id0"), is("HSL:1234"));
+                        assertThat("body has second stop", var.getString("id1"), is("HSL:5678"));
+                        assertThat("body has correct limit", var.getString("departures"), is("10"));
+                    } catch (Exception e) {
+                        assertThat(e.toString(), false, is(true));
+                    }
+
+                    latch.countDown();
+                }
+
+                @Override
+                public void onDepartureLoadError(VolleyError error) {
+                    assertThat("unexpected error " + error.toString(), true, is(false));
+                    latch.countDown();
+                }
+            });
+
+        latch.await();
+    }
+
     @Test
     public void test_getDeparturesJsonError() throws Exception {
         final MockWebServer server = setup_mockServer(
@@ -197,6 +486,10 @@ public class DigitransitApiTest {
         assertThat("got 10 stops", nstops, is(MockData.NUM_MOCK_STOPS));
     }
 
+    public VolleyError setup_errorResponse(String body) throws Exception {
+        return new ServerError(new NetworkResponse(body.getBytes("UTF-8")));
+    }
+
     public MockWebServer setup_mockServer(MockResponse... responses) {
         MockWebServer server = new MockWebServer();
 
@@ -0,0 +1,63 @@
+package io.github.sjakthol.stoptimes.digitransit.models;
+
+import android.support.test.runner.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Vector;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+@RunWith(AndroidJUnit4.class)
+public class DepartureBufferTest {
+    private static void setup_add(DepartureBuffer buffer, String route, boolean isTerminus) {
+        buffer.add(new String(route), "3", new String("Westendinasema"), null, "HSL:1_" + buffer.size(),
+            1469826000, 34560, 34500, true, isTerminus);
+    }
+
+    @Test
+    public void test_toDepartures() throws Exception {
+        DepartureBuffer buffer = new DepartureBuffer();
+        setup_add(buffer, "550", false);
+        setup_add(buffer, "550", true);
+
+        Vector<Departure> all = buffer.toDepartures(true);
+        assertThat("got all departures", all.size(), is(2));
+        assertThat("scheduled time is absolute", all.get(0).getScheduledDeparture(), is(1469826000L + 34560));
+        assertThat("realtime time is absolute", all.get(0).getRealtimeDeparture(), is(1469826000L + 34500));
+        assertThat("realtime flag", all.get(0).isRealtime(), is(true));
+
+        Vector<Departure> departing = buffer.toDepartures(false);
+        assertThat("terminus arrivals excluded", departing.size(), is(1));
+    }
+
+    @Test
+    public void test_poolsStrings() throws Exception {
+        DepartureBuffer buffer = new DepartureBuffer();
+        setup_add(buffer, "550", false);
+        setup_add(buffer, "550", false);
+
+        Vector<Departure> departures = buffer.toDepartures(true);
+        assertThat("routes are shared", departures.get(0).getRoute(), is(sameInstance(departures.get(1).getRoute())));
+        assertThat("headsigns are shared", departures.get(0).getHeadsign(),
+            is(sameInstance(departures.get(1).getHeadsign())));
+    }
+
+    @Test
+    public void test_clearAndGrow() throws Exception {
+        DepartureBuffer buffer = new DepartureBuffer();
+        for (int i = 0; i < 100; i++) {
+            setup_add(buffer, String.valueOf(i), false);
+        }
+        assertThat("buffer grew", buffer.toDepartures(true).size(), is(100));
+
+        buffer.clear();
+        assertThat("buffer empty", buffer.size(), is(0));
+
+        setup_add(buffer, "550", false);
+        Vector<Departure> departures = buffer.toDepartures(true);
+        assertThat("buffer reused", departures.size(), is(1));
+        assertThat(departures.get(0).getRoute(), is("550"));
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.sjakthol.stoptimes.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Header;
+import com.android.volley.Request;
+import com.android.volley.toolbox.HttpResponse;
+import com.android.volley.toolbox.StringRequest;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+@RunWith(AndroidJUnit4.class)
+public class OkHttpStackTest {
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.shutdown();
+    }
+
+    private Request<String> createPost(final String body) {
+        return new StringRequest(Request.Method.POST, mServer.url("/graphql").toString(), null, null) {
+            @Override
+            public byte[] getBody() {
+                return body.getBytes();
+            }
+
+            @Override
+            public String getBodyContentType() {
+                return "application/json; charset=utf-8";
+            }
+
+            @Override
+            public Map<String, String> getHeaders() {
+                return Collections.singletonMap("X-Request", "departures");
+            }
+        };
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        try {
+            return Okio.buffer(Okio.source(in)).readUtf8();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void test_post() throws Exception {
+        mServer.enqueue(new MockResponse().addHeader("X-Response", "yes").setBody("{\"data\": {}}"));
+
+        Map<String, String> additional = new HashMap<>();
+        additional.put("If-None-Match", "\"etag\"");
+
+        HttpResponse response = new OkHttpStack().executeRequest(createPost("{\"query\": \"{}\"}"), additional);
+        assertThat(response.getStatusCode(), is(200));
+        assertThat(readAll(response.getContent()), is("{\"data\": {}}"));
+
+        boolean found = false;
+        for (Header header : response.getHeaders()) {
+            found |= header.getName().equals("X-Response") && header.getValue().equals("yes");
+        }
+        assertThat(found, is(true));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertThat(request.getMethod(), is("POST"));
+        assertThat(request.getHeader("Content-Type"), is("application/json; charset=utf-8"));
+        assertThat(request.getHeader("X-Request"), is("departures"));
+        assertThat(request.getHeader("If-None-Match"), is("\"etag\""));
+        assertThat(request.getBody().readUtf8(), is("{\"query\": \"{}\"}"));
+    }
+
+    @Test
+    public void test_gzipResponse() throws Exception {
+        Buffer compressed = new Buffer();
+        GzipSink sink = new GzipSink(compressed);
+        Buffer plain = new Buffer().writeUtf8("{\"data\": {}}");
+        sink.write(plain, plain.size());
+        sink.close();
+
+        mServer.enqueue(new MockResponse().addHeader("Content-Encoding", "gzip").setBody(compressed));
+
+        HttpResponse response = new OkHttpStack().executeRequest(createPost("{}"), new HashMap<String, String>());
+        assertThat(readAll(response.getContent()), is("{\"data\": {}}"));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertThat(request.getHeader("Accept-Encoding"), is("gzip"));
+    }
+
+    @Test
+    public void test_gzipRequest() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{}"));
+
+        OkHttpStack stack = new OkHttpStack(OkHttpStack.newClientBuilder(true).build());
+        HttpResponse response = stack.executeRequest(createPost("{\"query\": \"{}\"}"), new HashMap<String, String>());
+        readAll(response.getContent());
+
+        RecordedRequest request = mServer.takeRequest();
+        assertThat(request.getHeader("Content-Encoding"), is("gzip"));
+        assertThat(Okio.buffer(new GzipSource(request.getBody())).readUtf8(), is("{\"query\": \"{}\"}"));
+    }
+
+    @Test
+    public void test_connectionReused() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{}"));
+        mServer.enqueue(new MockResponse().setBody("{}"));
+
+        OkHttpStack stack = new OkHttpStack(OkHttpStack.newClientBuilder(false).build());
+        readAll(stack.executeRequest(createPost("{}"), new HashMap<String, String>()).getContent());
+        readAll(stack.executeRequest(createPost("{}"), new HashMap<String, String>()).getContent());
+
+        assertThat(mServer.takeRequest().getSequenceNumber(), is(0));
+        assertThat(mServer.takeRequest().getSequenceNumber(), is(1));
+    }
+
+    @Test
+    public void test_clientPerTimeout() {
+        OkHttpClient client = OkHttpStack.newClientBuilder(false).build();
+        OkHttpStack stack = new OkHttpStack(client);
+
+        // Requests with the default retry policy use the client as it is
+        assertThat(stack.getClient(new DefaultRetryPolicy().getCurrentTimeout()), sameInstance(client));
+
+        OkHttpClient derived = stack.getClient(10000);
+        assertThat(derived, not(sameInstance(client)));
+        assertThat(derived.readTimeoutMillis(), is(10000));
+        assertThat(derived.connectionPool(), sameInstance(client.connectionPool()));
+        assertThat(stack.getClient(10000), sameInstance(derived));
+    }
+}
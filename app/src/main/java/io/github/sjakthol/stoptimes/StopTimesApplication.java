@@ -0,0 +1,44 @@
+package io.github.sjakthol.stoptimes;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import io.github.sjakthol.stoptimes.utils.Logger;
+import io.github.sjakthol.stoptimes.utils.OkHttpStack;
+
+/**
+ * The application. Sets up the state that is shared by all activities of the process.
+ */
+public class StopTimesApplication extends Application {
+    private static final String TAG = StopTimesApplication.class.getSimpleName();
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        registerConnectivityReceiver();
+    }
+
+    /**
+     * Registers a BroadcastReceiver that drops the cached DNS entries of the shared HTTP client
+     * whenever the network changes. The receiver lives as long as the process does.
+     */
+    private void registerConnectivityReceiver() {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isInitialStickyBroadcast()) {
+                    return;
+                }
+
+                // Addresses resolved on the previous network may not work on the new one
+                Logger.d(TAG, "Network changed; clearing DNS cache");
+                OkHttpStack.clearDnsCache();
+            }
+        };
+
+        registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+}
@@ -10,11 +10,13 @@ import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
+import io.github.sjakthol.stoptimes.BuildConfig;
 import io.github.sjakthol.stoptimes.R;
 import io.github.sjakthol.stoptimes.activity.settings.SettingsActivity;
 import io.github.sjakthol.stoptimes.activity.update.StopDatabaseUpdateActivity;
 import io.github.sjakthol.stoptimes.utils.Helpers;
 import io.github.sjakthol.stoptimes.utils.Logger;
+import io.github.sjakthol.stoptimes.utils.Metrics;
 
 /**
  * A base activity that handles generic tasks all activities in this app needs. This
@@ -82,6 +84,19 @@ public class BaseActivity extends AppCompatActivity {
         Helpers.maybeDisableUseLocation(this);
     }
 
+    /**
+     * Exports the metrics in debug builds so that the latest ones are available while the app
+     * is in the background.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        if (BuildConfig.DEBUG) {
+            Metrics.export(this);
+        }
+    }
+
     /**
      * Ensure toolbar is correctly set for the activity.
      *
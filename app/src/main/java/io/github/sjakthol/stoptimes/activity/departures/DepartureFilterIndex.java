@@ -0,0 +1,103 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.digitransit.models.DepartureFilter;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A hashed index of departure filters. The filters are keyed by route and then by headsign
+ * so that a departure can be matched with two hash lookups without allocating anything.
+ */
+class DepartureFilterIndex {
+    private final HashMap<String, HashSet<String>> mHeadsignsByRoute = new HashMap<>();
+
+    DepartureFilterIndex() {}
+
+    DepartureFilterIndex(Collection<DepartureFilter> filters) {
+        for (DepartureFilter filter : filters) {
+            add(filter.getRoute(), filter.getHeadsign());
+        }
+    }
+
+    /**
+     * Add a filter to the index.
+     *
+     * @param route the route of the filter
+     * @param headsign the headsign of the filter
+     */
+    void add(String route, String headsign) {
+        HashSet<String> headsigns = mHeadsignsByRoute.get(route);
+        if (headsigns == null) {
+            headsigns = new HashSet<>();
+            mHeadsignsByRoute.put(route, headsigns);
+        }
+
+        headsigns.add(headsign);
+    }
+
+    /**
+     * Remove a filter from the index.
+     *
+     * @param route the route of the filter
+     * @param headsign the headsign of the filter
+     */
+    void remove(String route, String headsign) {
+        HashSet<String> headsigns = mHeadsignsByRoute.get(route);
+        if (headsigns != null && headsigns.remove(headsign) && headsigns.isEmpty()) {
+            mHeadsignsByRoute.remove(route);
+        }
+    }
+
+    /**
+     * Check if the index contains no filters.
+     *
+     * @return true if there are no filters
+     */
+    boolean isEmpty() {
+        return mHeadsignsByRoute.isEmpty();
+    }
+
+    /**
+     * Check if a filter matches the given route and headsign.
+     *
+     * @param route the route
+     * @param headsign the headsign
+     * @return true if a filter matches
+     */
+    boolean matches(String route, String headsign) {
+        HashSet<String> headsigns = mHeadsignsByRoute.get(route);
+        return headsigns != null && headsigns.contains(headsign);
+    }
+
+    /**
+     * Check if a filter matches the given departure.
+     *
+     * @param departure the departure
+     * @return true if a filter matches
+     */
+    boolean matches(Departure departure) {
+        return matches(departure.getRoute(), departure.getHeadsign());
+    }
+
+    /**
+     * Match all departures against the index in a single pass.
+     *
+     * @param departures the departures
+     * @return a bitmap with the bit of each matching departure set
+     */
+    BitSet match(List<Departure> departures) {
+        BitSet matches = new BitSet(departures.size());
+        for (int i = 0; i < departures.size(); i++) {
+            if (matches(departures.get(i))) {
+                matches.set(i);
+            }
+        }
+
+        return matches;
+    }
+}
@@ -3,7 +3,7 @@ package io.github.sjakthol.stoptimes.activity.departures;
 import android.annotation.SuppressLint;
 import android.database.Cursor;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
 import android.support.annotation.StringRes;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.ActionBar;
@@ -19,6 +19,7 @@ import io.github.sjakthol.stoptimes.activity.generic.UnexpectedErrorFragment;
 import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
 import io.github.sjakthol.stoptimes.db.task.GetDepartureFiltersTask;
 import io.github.sjakthol.stoptimes.db.task.UpdateDepartureFilterTask;
+import io.github.sjakthol.stoptimes.digitransit.DepartureCache;
 import io.github.sjakthol.stoptimes.digitransit.DigitransitApi;
 import io.github.sjakthol.stoptimes.digitransit.models.CitybikeStatus;
 import io.github.sjakthol.stoptimes.digitransit.models.Departure;
@@ -44,6 +45,12 @@ public class DepartureListActivity extends BaseActivity implements
     public static final String EXTRA_STOP_TYPE = "EXTRA_STOP_TYPE";
     public static final String EXTRA_STOP_NAME = "EXTRA_STOP_NAME";
 
+    /**
+     * The full departure list is fetched at least this often. The polls in between only
+     * fetch the departures that may have changed.
+     */
+    private static final long FULL_UPDATE_INTERVAL_MILLIS = 10 * 60000;
+
     /**
      * The ID of the stop shown in this activity.
      */
@@ -61,6 +68,12 @@ public class DepartureListActivity extends BaseActivity implements
     private String mLocationType;
     private StopListDatabaseHelper mDatabaseHelper;
 
+    /**
+     * The departures that are currently shown and the time of the last full update.
+     */
+    private Vector<Departure> mDepartures;
+    private long mLastFullUpdate = -1;
+
     public DepartureListActivity() {
         super(R.id.departure_list_content);
     }
@@ -89,7 +102,7 @@ public class DepartureListActivity extends BaseActivity implements
         mStopId = getIntent().getStringExtra(EXTRA_STOP_ID);
         mLocationType = getIntent().getStringExtra(EXTRA_STOP_TYPE);
 
-        mDatabaseHelper = new StopListDatabaseHelper(this);
+        mDatabaseHelper = StopListDatabaseHelper.getInstance(this);
 
         new GetDepartureFiltersTask(mDatabaseHelper) {
             @Override
@@ -115,6 +128,8 @@ public class DepartureListActivity extends BaseActivity implements
         super.onResume();
         Logger.d(TAG, "onResume()");
 
+        // The settings may have changed while paused; start over with a full update
+        mLastFullUpdate = -1;
         updateDepartures();
     }
 
@@ -151,6 +166,7 @@ public class DepartureListActivity extends BaseActivity implements
     @Override
     public void onDeparturesAvailable(Vector<Departure> departures) {
         ensureDepartureListIsAdded();
+        mDepartures = departures;
 
         if (departures.isEmpty()) {
             Logger.i(TAG, "Got empty departure list; showing notice");
@@ -180,6 +196,9 @@ public class DepartureListActivity extends BaseActivity implements
     public void onDepartureLoadError(VolleyError error) {
         Logger.e(TAG, "Digitransit API returned failure", error);
 
+        // Make sure the next update fetches everything
+        mLastFullUpdate = -1;
+
         if (!mDepartureList.isAdded()) {
             // The departure list is not shown; show an error screen.
             Fragment frag = error instanceof NoConnectionError ?
@@ -200,8 +219,8 @@ public class DepartureListActivity extends BaseActivity implements
             showUpdateErrorSnackbar(R.string.departure_list_update_unexpected_failure);
         }
 
-        // Notify the fragment that update has finished
-        mDepartureList.updateFinished();
+        // Notify the fragment that update has failed
+        mDepartureList.updateFailed();
     }
 
     @Override
@@ -254,16 +273,40 @@ public class DepartureListActivity extends BaseActivity implements
      * Triggers a departure list update.
      */
     private void updateDepartures() {
-        showLoadingIndicator();
-
         if (mLocationType.equals("CITYBIKE_STATION")) {
+            showLoadingIndicator();
             updateCitybikeStatus();
             return;
         }
 
+        if (!mDepartureList.isAdded()) {
+            // Show recently loaded departures right away and refresh them in the background
+            Vector<Departure> cached = DepartureCache.getInstance().get(
+                mStopId, mLocationType, getNumDepartures(), getShowArrivalsToTerminus());
+            if (cached != null) {
+                Logger.i(TAG, "Showing %d cached departures while updating", cached.size());
+                onDeparturesAvailable(cached);
+
+                // Attach the list right away; otherwise it still counts as hidden below and the
+                // loading screen replaces it until the network responds.
+                getSupportFragmentManager().executePendingTransactions();
+            }
+        }
+
+        showLoadingIndicator();
+
+        Vector<Departure> known = null;
+        long now = SystemClock.elapsedRealtime();
+        if (mLastFullUpdate >= 0 && now - mLastFullUpdate < FULL_UPDATE_INTERVAL_MILLIS) {
+            known = mDepartures;
+        } else {
+            mLastFullUpdate = now;
+        }
+
         Logger.i(TAG, "Fetching departures from Digitransit");
         try {
-            DigitransitApi.getDepartures(this, mStopId, mLocationType, getNumDepartures(), getShowArrivalsToTerminus(), this);
+            DigitransitApi.getDepartures(this, mStopId, mLocationType, getNumDepartures(), getShowArrivalsToTerminus(),
+                known, this);
         } catch (JSONException e) {
             // This can happen if getNumDepartures() is infinity or NaN. If
             // it does, YOLO!
@@ -304,23 +347,10 @@ public class DepartureListActivity extends BaseActivity implements
      * @return the number of departures to fetch
      */
     private int getNumDepartures() {
-        String key = getString(R.string.pref_key_departures_num_results);
-        String limit = PreferenceManager
-                .getDefaultSharedPreferences(this)
-                .getString(key, "20");
-
-        try {
-            return Integer.valueOf(limit);
-        } catch (NumberFormatException e) {
-            Logger.w(TAG, "getNumDepartures(): Invalid limit %s", limit);
-            return 10;
-        }
+        return Helpers.getNumDepartures(this);
     }
 
     private boolean getShowArrivalsToTerminus() {
-        String key = getString(R.string.pref_key_show_arrivals_to_terminus);
-        return PreferenceManager
-            .getDefaultSharedPreferences(this)
-            .getBoolean(key, false);
+        return Helpers.getShowArrivalsToTerminus(this);
     }
 }
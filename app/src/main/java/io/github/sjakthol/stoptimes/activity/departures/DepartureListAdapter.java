@@ -2,9 +2,12 @@ package io.github.sjakthol.stoptimes.activity.departures;
 
 import android.content.Context;
 import android.content.res.ColorStateList;
-import android.graphics.Typeface;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.recyclerview.extensions.AsyncListDiffer;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
@@ -13,34 +16,63 @@ import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.ImageView;
 import android.widget.TextView;
-import com.amulyakhare.textdrawable.TextDrawable;
 import io.github.sjakthol.stoptimes.R;
 import io.github.sjakthol.stoptimes.digitransit.models.CitybikeStatus;
 import io.github.sjakthol.stoptimes.digitransit.models.Departure;
 import io.github.sjakthol.stoptimes.digitransit.models.DepartureFilter;
 import io.github.sjakthol.stoptimes.utils.Logger;
 
-import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
 
 /**
- * An adapter for the departure list.
+ * An adapter for the departure list. Departure updates are diffed against the shown list on a
+ * background thread so that only the rows that changed are rebound.
  */
 class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.ViewHolder> {
     private static final String TAG = DepartureListAdapter.class.getSimpleName();
 
+    static final DiffUtil.ItemCallback<DepartureRow> DIFF_CALLBACK =
+        new DiffUtil.ItemCallback<DepartureRow>() {
+            @Override
+            public boolean areItemsTheSame(@NonNull DepartureRow a, @NonNull DepartureRow b) {
+                return a.mDeparture.isSameDeparture(b.mDeparture);
+            }
+
+            @Override
+            public boolean areContentsTheSame(@NonNull DepartureRow a, @NonNull DepartureRow b) {
+                return a.mDeparture.equals(b.mDeparture) &&
+                    a.mLeavesNow == b.mLeavesNow &&
+                    a.mEditMode == b.mEditMode &&
+                    a.mChecked == b.mChecked;
+            }
+        };
+
     /**
      * The list of departures this adapter adapts.
      */
     private Vector<Departure> mDepartures;
-    private Vector<Departure> mDeparturesAfterFiltering;
+
+    /**
+     * The rows that are shown for the departures after filtering.
+     */
+    private final AsyncListDiffer<DepartureRow> mDiffer = new AsyncListDiffer<>(this, DIFF_CALLBACK);
 
     /**
      * The set that contains all applied departure filters.
      */
     private HashSet<DepartureFilter> mDepartureFilters;
 
+    /**
+     * A hashed index of mDepartureFilters and a bitmap of the entries of mDepartures that
+     * match it.
+     */
+    private DepartureFilterIndex mFilterIndex = new DepartureFilterIndex();
+    private BitSet mMatches = new BitSet();
+
     /**
      * A flags for filters.
      */
@@ -58,6 +90,24 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
     private ColorStateList mDefaultPrimaryTextColors;
     private ColorStateList mDefaultSecondaryTextColors;
 
+    /**
+     * A departure and the state it is shown in. These are compared when the list is diffed
+     * so everything that affects how the row looks must be included here.
+     */
+    static final class DepartureRow {
+        private final Departure mDeparture;
+        private final boolean mLeavesNow;
+        private final boolean mEditMode;
+        private final boolean mChecked;
+
+        DepartureRow(Departure departure, boolean leavesNow, boolean editMode, boolean checked) {
+            mDeparture = departure;
+            mLeavesNow = leavesNow;
+            mEditMode = editMode;
+            mChecked = checked;
+        }
+    }
+
     static class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
         private final CheckBox mFilterCheckbox;
         private final ImageView mRoute;
@@ -104,12 +154,10 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
 
     @Override
     public int getItemCount() {
-        if (mDeparturesAfterFiltering != null) {
-            return mDeparturesAfterFiltering.size();
-        } else if (mCitybikeStatuses != null) {
+        if (mCitybikeStatuses != null) {
             return mCitybikeStatuses.size();
         } else {
-            return 0;
+            return mDiffer.getCurrentList().size();
         }
     }
 
@@ -128,26 +176,22 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
         // Save text colors before we start to modify them
         maybeSaveTextColors(holder);
 
-        if (mDeparturesAfterFiltering != null) {
-            bindDeparture(holder, position, ctx);
-        } else if (mCitybikeStatuses != null) {
+        if (mCitybikeStatuses != null) {
             bindCitybikeStatus(holder, position, ctx);
+        } else {
+            bindDeparture(holder, position, ctx);
         }
     }
 
     private void bindDeparture(ViewHolder holder, int position, Context ctx) {
-        Departure departure = mDeparturesAfterFiltering.elementAt(position);
+        DepartureRow row = mDiffer.getCurrentList().get(position);
+        Departure departure = row.mDeparture;
 
-        // Build the drawable avatar
+        // Get the drawable avatar
         int color = ContextCompat.getColor(ctx, departure.getRouteColor());
-        int size = ctx.getResources().getDimensionPixelSize(R.dimen.route_font_size);
-        TextDrawable drawable = TextDrawable.builder()
-            .beginConfig()
-                .bold()
-                .fontSize(size)
-                .useFont(Typeface.DEFAULT)
-            .endConfig()
-            .buildRound(departure.getRoute(), color);
+        Resources res = ctx.getResources();
+        Drawable drawable = RouteBadgeCache.getInstance(ctx).getBadge(res, departure.getRoute(), color,
+            res.getDimensionPixelSize(R.dimen.route_font_size), res.getDimensionPixelSize(R.dimen.route_badge_size));
 
         holder.getRoute().setImageDrawable(drawable);
         holder.getHeadsign().setText(departure.getHeadsign());
@@ -161,21 +205,15 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
         }
 
         // Render the departure time.
-        Timestamp time = departure.isRealtime() ?
-            departure.getRealtimeDeparture() :
-            departure.getScheduledDeparture();
-
-        // If the departure is happening in near future, make it "Now".
-        long delta = time.getTime() - System.currentTimeMillis();
-        String leaves = (delta < 60000) ?
+        String leaves = row.mLeavesNow ?
                 ctx.getResources().getString(R.string.departure_now) :
-                DateUtils.formatDateTime(ctx, time.getTime(), DateUtils.FORMAT_SHOW_TIME);
+                DateUtils.formatDateTime(ctx, getDepartureTime(departure) * 1000, DateUtils.FORMAT_SHOW_TIME);
 
         holder.getTime().setText(leaves);
 
-        if (mEditFilterMode) {
+        if (row.mEditMode) {
             holder.getFilterCheckbox().setVisibility(View.VISIBLE);
-            holder.getFilterCheckbox().setChecked(doesDepartureMatchFilters(departure));
+            holder.getFilterCheckbox().setChecked(row.mChecked);
             holder.getTime().setVisibility(View.GONE);
         } else {
             holder.getFilterCheckbox().setVisibility(View.GONE);
@@ -203,7 +241,12 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
      * @param adapterPosition the position that changed filter state
      */
     private void onFilterClicked(int adapterPosition) {
-        Departure d = mDeparturesAfterFiltering.get(adapterPosition);
+        if (adapterPosition < 0) {
+            // The row is being removed from the list
+            return;
+        }
+
+        Departure d = mDiffer.getCurrentList().get(adapterPosition).mDeparture;
         Logger.d(TAG, "Filter checkbox was clicked (route=%s, headsign=%s)",
                 d.getRoute(), d.getHeadsign());
 
@@ -211,30 +254,55 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
         if (mDepartureFilters.contains(f)) {
             Logger.d(TAG, "Removing filter from filter set: %s", f);
             mDepartureFilters.remove(f);
+            mFilterIndex.remove(f.getRoute(), f.getHeadsign());
         } else {
             Logger.d(TAG, "Adding filter to filter set: %s", f);
             mDepartureFilters.add(f);
+            mFilterIndex.add(f.getRoute(), f.getHeadsign());
         }
 
-        mDeparturesAfterFiltering = getDeparturesAfterFiltering();
+        updateMatches();
+    }
 
-        notifyDataSetChanged();
+    /**
+     * Match the departures against the filters and update the list of shown departures.
+     */
+    private void updateMatches() {
+        mMatches = mDepartures == null ? new BitSet() : mFilterIndex.match(mDepartures);
+        submitDepartures();
     }
 
     /**
-     * Determine if given departure matches the current set of departure filters
-     *
-     * @param d the departure to check
-     * @return true if filters match the departure, false otherwise
+     * Build the rows for the departures that pass the filters and diff them against the
+     * shown rows in the background.
      */
-    private boolean doesDepartureMatchFilters(Departure d) {
-        for (DepartureFilter f : mDepartureFilters) {
-            if (f.matchesDeparture(d)) {
-                return true;
-            }
+    private void submitDepartures() {
+        Vector<Departure> departures = getDeparturesAfterFiltering();
+        if (departures == null) {
+            mDiffer.submitList(null);
+            return;
         }
 
-        return false;
+        // A filtered list only contains departures that match the filters
+        boolean filtered = departures != mDepartures;
+        long now = System.currentTimeMillis() / 1000;
+
+        List<DepartureRow> rows = new ArrayList<>(departures.size());
+        for (int i = 0; i < departures.size(); i++) {
+            Departure departure = departures.get(i);
+
+            // If the departure is happening in near future, make it "Now".
+            boolean leavesNow = getDepartureTime(departure) - now < 60;
+            rows.add(new DepartureRow(departure, leavesNow, mEditFilterMode, filtered || mMatches.get(i)));
+        }
+
+        mDiffer.submitList(rows);
+    }
+
+    private static long getDepartureTime(Departure departure) {
+        return departure.isRealtime() ?
+            departure.getRealtimeDeparture() :
+            departure.getScheduledDeparture();
     }
 
     /**
@@ -248,7 +316,7 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
             return mDepartures;
         }
 
-        if (mDepartureFilters == null || mDepartureFilters.size() == 0) {
+        if (mFilterIndex.isEmpty()) {
             // No filters --> show everything
             return mDepartures;
         }
@@ -258,16 +326,16 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
             return null;
         }
 
-        Vector<Departure> deps = new Vector<>();
-        for (Departure d : mDepartures) {
-            if (doesDepartureMatchFilters(d)) {
-                deps.add(d);
-            }
+        int count = mMatches.cardinality();
+        if (count == 0 || count == mDepartures.size()) {
+            // Show all departures if filters would've excluded them all or
+            // if they all match anyway
+            return mDepartures;
         }
 
-        if (deps.isEmpty()) {
-            // Show all departures filters would've excluded them all
-            return mDepartures;
+        Vector<Departure> deps = new Vector<>(count);
+        for (int i = mMatches.nextSetBit(0); i >= 0; i = mMatches.nextSetBit(i + 1)) {
+            deps.add(mDepartures.get(i));
         }
 
         return deps;
@@ -340,22 +408,27 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
      */
     void setDepartureList(Vector<Departure> departures) {
         mDepartures = departures;
-        mDeparturesAfterFiltering = getDeparturesAfterFiltering();
 
-        mCitybikeStatuses = null;
-        notifyDataSetChanged();
+        if (mCitybikeStatuses != null) {
+            mCitybikeStatuses = null;
+            notifyDataSetChanged();
+        }
+
+        updateMatches();
     }
 
     void setDepartureFilters(HashSet<DepartureFilter> filters) {
         mDepartureFilters = filters;
-        mDeparturesAfterFiltering = getDeparturesAfterFiltering();
-        notifyDataSetChanged();
+        mFilterIndex = new DepartureFilterIndex(filters);
+        updateMatches();
     }
 
     void setCitybikeStatus(CitybikeStatus status) {
-        mDeparturesAfterFiltering = null;
         mDepartureFilters = null;
         mDepartures = null;
+        mFilterIndex = new DepartureFilterIndex();
+        mMatches = new BitSet();
+        mDiffer.submitList(null);
 
         mCitybikeStatuses = new Vector<>();
         mCitybikeStatuses.add(status);
@@ -364,13 +437,11 @@ class DepartureListAdapter extends RecyclerView.Adapter<DepartureListAdapter.Vie
 
     void setFilterUpdateMode(boolean mode) {
         mEditFilterMode = mode;
-        mDeparturesAfterFiltering = getDeparturesAfterFiltering();
-        notifyDataSetChanged();
+        submitDepartures();
     }
 
     void toggleFilters() {
         mAreFiltersEnabled = !mAreFiltersEnabled;
-        mDeparturesAfterFiltering = getDeparturesAfterFiltering();
-        notifyDataSetChanged();
+        submitDepartures();
     }
 }
@@ -1,7 +1,11 @@
 package io.github.sjakthol.stoptimes.activity.departures;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
+import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.annotation.NonNull;
@@ -14,6 +18,7 @@ import io.github.sjakthol.stoptimes.R;
 import io.github.sjakthol.stoptimes.digitransit.models.DepartureFilter;
 import io.github.sjakthol.stoptimes.digitransit.models.CitybikeStatus;
 import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.utils.Helpers;
 import io.github.sjakthol.stoptimes.utils.Logger;
 
 import java.util.HashSet;
@@ -26,7 +31,6 @@ import static io.github.sjakthol.stoptimes.activity.departures.DepartureListActi
  */
 public class DepartureListFragment extends Fragment {
     private static final String TAG = DepartureListFragment.class.getSimpleName();
-    private static final int REFRESH_DELAY_MILLIS = 60000;
 
     /**
      * The activity that handles departure updates.
@@ -51,15 +55,36 @@ public class DepartureListFragment extends Fragment {
         public void run() {
             mListener.onDepartureUpdate();
 
-            // Schedule the next update.
-            mHandler.postDelayed(mRefreshRunnable, REFRESH_DELAY_MILLIS);
+            // The next update is scheduled once this one finishes. Retry later in case it
+            // never does.
+            mHandler.postDelayed(mRefreshRunnable, RefreshScheduler.MAX_DELAY_MILLIS);
         }
     };
 
     /**
      * A handler used to dispatch the update runnable.
      */
-    private Handler mHandler;
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Decides when the next periodic update happens.
+     */
+    private final RefreshScheduler mScheduler = new RefreshScheduler();
+
+    /**
+     * A receiver that pauses periodic updates while there is no connection.
+     */
+    private BroadcastReceiver mConnectivityReceiver;
+
+    /**
+     * True if the fragment is resumed and should update itself periodically.
+     */
+    private boolean mResumed = false;
+
+    /**
+     * True if periodic updates are paused because there is no connection.
+     */
+    private boolean mPaused = false;
 
     private boolean mEditFilterMode = false;
 
@@ -120,8 +145,9 @@ public class DepartureListFragment extends Fragment {
         super.onResume();
         Logger.d(TAG, "onResume()");
 
-        mHandler = new Handler();
-        mHandler.postDelayed(mRefreshRunnable, REFRESH_DELAY_MILLIS);
+        mResumed = true;
+        mConnectivityReceiver = registerConnectivityReceiver();
+        scheduleRefresh();
     }
 
     @Override
@@ -129,7 +155,13 @@ public class DepartureListFragment extends Fragment {
         super.onPause();
         Logger.d(TAG, "onPause()");
 
+        mResumed = false;
         mHandler.removeCallbacks(mRefreshRunnable);
+
+        if (mConnectivityReceiver != null) {
+            getActivity().unregisterReceiver(mConnectivityReceiver);
+            mConnectivityReceiver = null;
+        }
     }
 
     @Override
@@ -195,6 +227,27 @@ public class DepartureListFragment extends Fragment {
     void setDepartureList(Vector<Departure> departures) {
         Logger.i(TAG, "Changing departure list to %s", departures);
         mAdapter.setDepartureList(departures);
+
+        long now = System.currentTimeMillis();
+        long next = -1;
+        long nextRealtime = -1;
+        for (Departure departure : departures) {
+            long time = departure.getRealtimeDeparture() * 1000;
+            if (time < now) {
+                continue;
+            }
+
+            if (next < 0 || time < next) {
+                next = time;
+            }
+
+            if (departure.isRealtime() && (nextRealtime < 0 || time < nextRealtime)) {
+                nextRealtime = time;
+            }
+        }
+
+        mScheduler.onSuccess(next, nextRealtime);
+        scheduleRefresh();
     }
 
     /**
@@ -228,6 +281,9 @@ public class DepartureListFragment extends Fragment {
     void setCitybikeStatus(CitybikeStatus status) {
         Logger.i(TAG, "Changing departure list to status %s", status);
         mAdapter.setCitybikeStatus(status);
+
+        mScheduler.onSuccess(-1, -1);
+        scheduleRefresh();
     }
 
     /**
@@ -258,6 +314,64 @@ public class DepartureListFragment extends Fragment {
 
     }
 
+    /**
+     * Notify the fragment that the pending update has failed. The next periodic update is
+     * delayed with an exponential backoff.
+     */
+    void updateFailed() {
+        updateFinished();
+
+        mScheduler.onFailure();
+        scheduleRefresh();
+    }
+
+    /**
+     * Schedule the next periodic update based on the shown departures and the state of the
+     * connection. Replaces any previously scheduled update.
+     */
+    private void scheduleRefresh() {
+        if (!mResumed || mPaused) {
+            return;
+        }
+
+        long delay = mScheduler.getDelay(System.currentTimeMillis(), Helpers.isMetered(getActivity()));
+        Logger.d(TAG, "Scheduling next update in %dms", delay);
+
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mHandler.postDelayed(mRefreshRunnable, delay);
+    }
+
+    /**
+     * Registers a BroadcastReceiver that pauses periodic updates while there is no connection
+     * and reschedules them when the connection changes.
+     *
+     * @return the new receiver
+     */
+    private BroadcastReceiver registerConnectivityReceiver() {
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (!Helpers.isConnected(context)) {
+                    if (!mPaused) {
+                        Logger.i(TAG, "Connection lost; pausing updates");
+                        mPaused = true;
+                        mHandler.removeCallbacks(mRefreshRunnable);
+                    }
+                } else if (mPaused) {
+                    Logger.i(TAG, "Connection restored; resuming updates");
+                    mPaused = false;
+                    mListener.onDepartureUpdate();
+                } else {
+                    // The connection may have changed between metered and unmetered
+                    scheduleRefresh();
+                }
+            }
+        };
+
+        getActivity().registerReceiver(receiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        return receiver;
+    }
+
     /**
      * An interface used to notify the parent about reaching the end-of-departures.
      */
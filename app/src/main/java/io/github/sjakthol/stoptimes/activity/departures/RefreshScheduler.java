@@ -0,0 +1,95 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+/**
+ * Decides when the departure list should be refreshed next. The list is polled often when a
+ * realtime departure is about to leave, less often when nothing is happening soon and with an
+ * exponential backoff after failed updates.
+ */
+class RefreshScheduler {
+    /**
+     * The delay used when a realtime departure is due within DUE_SOON_MILLIS.
+     */
+    static final long FAST_DELAY_MILLIS = 15000;
+
+    /**
+     * The delay used when nothing is known about the upcoming departures.
+     */
+    static final long DEFAULT_DELAY_MILLIS = 60000;
+
+    /**
+     * The longest delay between two updates.
+     */
+    static final long MAX_DELAY_MILLIS = 5 * 60000;
+
+    /**
+     * The shortest delay on a metered connection.
+     */
+    static final long METERED_MIN_DELAY_MILLIS = 2 * 60000;
+
+    /**
+     * The delay after the first failed update; doubled after each consecutive failure.
+     */
+    static final long ERROR_DELAY_MILLIS = 15000;
+
+    /**
+     * A departure within this time is considered to be due soon.
+     */
+    static final long DUE_SOON_MILLIS = 5 * 60000;
+
+    private long mNextDeparture = -1;
+    private long mNextRealtimeDeparture = -1;
+    private int mFailures = 0;
+
+    /**
+     * Record a successful update.
+     *
+     * @param nextDeparture the time of the next departure in ms or -1 if there are none
+     * @param nextRealtimeDeparture the time of the next departure with a realtime prediction
+     *                              in ms or -1 if there are none
+     */
+    void onSuccess(long nextDeparture, long nextRealtimeDeparture) {
+        mNextDeparture = nextDeparture;
+        mNextRealtimeDeparture = nextRealtimeDeparture;
+        mFailures = 0;
+    }
+
+    /**
+     * Record a failed update.
+     */
+    void onFailure() {
+        mFailures++;
+    }
+
+    /**
+     * Get the time to wait before the next update.
+     *
+     * @param now the current time in ms
+     * @param metered whether the active connection is metered
+     * @return the delay in ms
+     */
+    long getDelay(long now, boolean metered) {
+        long delay = getDelay(now);
+        return metered ? Math.max(delay, METERED_MIN_DELAY_MILLIS) : delay;
+    }
+
+    private long getDelay(long now) {
+        if (mFailures > 0) {
+            // Cap the shift to avoid overflowing on long outages
+            long backoff = ERROR_DELAY_MILLIS << Math.min(mFailures - 1, 16);
+            return Math.min(backoff, MAX_DELAY_MILLIS);
+        }
+
+        if (mNextRealtimeDeparture >= 0 && mNextRealtimeDeparture - now <= DUE_SOON_MILLIS) {
+            return FAST_DELAY_MILLIS;
+        }
+
+        long untilDeparture = mNextDeparture - now;
+        if (mNextDeparture < 0 || untilDeparture <= DUE_SOON_MILLIS) {
+            return DEFAULT_DELAY_MILLIS;
+        }
+
+        // Nothing leaves soon; check back well before the next departure becomes due
+        long delay = (untilDeparture - DUE_SOON_MILLIS) / 2;
+        return Math.max(DEFAULT_DELAY_MILLIS, Math.min(delay, MAX_DELAY_MILLIS));
+    }
+}
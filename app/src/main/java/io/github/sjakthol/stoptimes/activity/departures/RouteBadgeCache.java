@@ -0,0 +1,112 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import android.annotation.SuppressLint;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.ColorInt;
+import android.util.LruCache;
+import com.amulyakhare.textdrawable.TextDrawable;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+/**
+ * A cache for the round route badges shown next to departures. Building a badge allocates
+ * paints and a shape, and the same few routes are shown over and over again, so each badge
+ * is rendered into a bitmap once and the bitmap is shared by all rows that show the route.
+ *
+ * Drawables keep per-view state such as their bounds, alpha and callback, so every call gets
+ * a new drawable that wraps the shared bitmap. The cache is cleared when the system runs low
+ * on memory.
+ */
+final class RouteBadgeCache implements ComponentCallbacks2 {
+    private static final String TAG = RouteBadgeCache.class.getSimpleName();
+    private static final int MAX_BYTES = 2 * 1024 * 1024;
+
+    @SuppressLint("StaticFieldLeak")
+    private static RouteBadgeCache sInstance;
+
+    private final LruCache<String, Bitmap> mBadges = new LruCache<String, Bitmap>(MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap badge) {
+            return badge.getRowBytes() * badge.getHeight();
+        }
+    };
+
+    private RouteBadgeCache() {}
+
+    /**
+     * Get the singleton instance of the cache.
+     *
+     * @param ctx a context used to register for memory pressure callbacks
+     * @return the cache
+     */
+    static synchronized RouteBadgeCache getInstance(Context ctx) {
+        if (sInstance == null) {
+            sInstance = new RouteBadgeCache();
+            ctx.getApplicationContext().registerComponentCallbacks(sInstance);
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Get a badge for the given route.
+     *
+     * @param res the resources used to set the density of the drawable
+     * @param route the route code
+     * @param color the color of the badge
+     * @param fontSize the font size in pixels
+     * @param size the width and height of the badge in pixels
+     * @return a new drawable with the badge
+     */
+    Drawable getBadge(Resources res, String route, @ColorInt int color, int fontSize, int size) {
+        String key = route + '|' + color + '|' + fontSize + '|' + size;
+        Bitmap badge = mBadges.get(key);
+        if (badge == null) {
+            badge = render(route, color, fontSize, size);
+            mBadges.put(key, badge);
+        }
+
+        return new BitmapDrawable(res, badge);
+    }
+
+    private static Bitmap render(String route, @ColorInt int color, int fontSize, int size) {
+        TextDrawable drawable = TextDrawable.builder()
+            .beginConfig()
+                .bold()
+                .fontSize(fontSize)
+                .useFont(Typeface.DEFAULT)
+            .endConfig()
+            .buildRound(route, color);
+
+        Bitmap badge = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        drawable.setBounds(0, 0, size, size);
+        drawable.draw(new Canvas(badge));
+        return badge;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            Logger.i(TAG, "Clearing %d bytes of route badges (trim level %d)", mBadges.size(), level);
+            mBadges.evictAll();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        Logger.i(TAG, "Clearing %d bytes of route badges on low memory", mBadges.size());
+        mBadges.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Font sizes are part of the key; nothing to do
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.sjakthol.stoptimes.activity.stoplist;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import com.android.volley.VolleyError;
+import io.github.sjakthol.stoptimes.db.StopListContract;
+import io.github.sjakthol.stoptimes.digitransit.DepartureCache;
+import io.github.sjakthol.stoptimes.digitransit.DigitransitApi;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.utils.Helpers;
+import io.github.sjakthol.stoptimes.utils.Logger;
+import org.json.JSONException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Warms the departure cache for the first stops of a stop list so that the departures of a
+ * tapped stop can be shown right away. The departures of all stops are fetched in a single
+ * batched request.
+ *
+ * Prefetching is skipped without a connection or when power should be saved, and limited to
+ * fewer stops on metered connections. The number of prefetched stops is capped by a budget
+ * that is refilled periodically.
+ *
+ * All methods MUST be called from the main thread.
+ */
+class DeparturePrefetcher {
+    private static final String TAG = DeparturePrefetcher.class.getSimpleName();
+
+    /**
+     * The number of stops to prefetch from the top of the list.
+     */
+    static final int DEFAULT_MAX_STOPS = 5;
+
+    /**
+     * The number of stops to prefetch on a metered connection.
+     */
+    static final int METERED_MAX_STOPS = 2;
+
+    /**
+     * The number of stops that can be prefetched within BUDGET_WINDOW_MILLIS.
+     */
+    static final int DEFAULT_BUDGET = 30;
+    static final long DEFAULT_BUDGET_WINDOW_MILLIS = 15 * 60000;
+
+    private static final DeparturePrefetcher sInstance =
+        new DeparturePrefetcher(DEFAULT_MAX_STOPS, DEFAULT_BUDGET, DEFAULT_BUDGET_WINDOW_MILLIS);
+
+    private final int mMaxStops;
+    private final int mBudget;
+    private final long mBudgetWindowMillis;
+
+    private long mWindowStart = -1;
+    private int mUsed = 0;
+
+    /**
+     * Create a new prefetcher.
+     *
+     * @param maxStops the number of stops to prefetch from the top of the list
+     * @param budget the number of stops that can be prefetched within the budget window
+     * @param budgetWindowMillis the length of the budget window
+     */
+    DeparturePrefetcher(int maxStops, int budget, long budgetWindowMillis) {
+        mMaxStops = maxStops;
+        mBudget = budget;
+        mBudgetWindowMillis = budgetWindowMillis;
+    }
+
+    /**
+     * Get the shared prefetcher.
+     *
+     * @return the prefetcher
+     */
+    static DeparturePrefetcher getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Prefetch the departures of the first stops of the given cursor. The position of the
+     * cursor is restored afterwards.
+     *
+     * @param ctx a context
+     * @param cursor a cursor with the stops of the list
+     */
+    void prefetch(Context ctx, Cursor cursor) {
+        if (!Helpers.isConnected(ctx)) {
+            Logger.d(TAG, "No connection; not prefetching");
+            return;
+        }
+
+        if (Helpers.shouldSavePower(ctx)) {
+            Logger.d(TAG, "Saving power; not prefetching");
+            return;
+        }
+
+        final int numDepartures = Helpers.getNumDepartures(ctx);
+        final boolean includeTerminus = Helpers.getShowArrivalsToTerminus(ctx);
+        int maxStops = Helpers.isMetered(ctx) ? Math.min(mMaxStops, METERED_MAX_STOPS) : mMaxStops;
+
+        final Map<String, String> stops = getUncachedStops(cursor, maxStops, numDepartures, includeTerminus);
+        int granted = takeBudget(stops.size(), SystemClock.elapsedRealtime());
+        if (granted == 0) {
+            Logger.d(TAG, "Nothing to prefetch (%d uncached stops)", stops.size());
+            return;
+        }
+
+        Iterator<String> it = stops.keySet().iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            it.next();
+            if (i >= granted) {
+                it.remove();
+            }
+        }
+
+        Logger.i(TAG, "Prefetching departures of %d stops", stops.size());
+        try {
+            DigitransitApi.getDeparturesForStops(ctx.getApplicationContext(), stops, numDepartures, includeTerminus,
+                new DigitransitApi.MultiDepartureResponseListener() {
+                    @Override
+                    public void onDeparturesAvailable(Map<String, Vector<Departure>> departures) {
+                        DepartureCache cache = DepartureCache.getInstance();
+                        for (Map.Entry<String, Vector<Departure>> entry : departures.entrySet()) {
+                            String stopId = entry.getKey();
+                            cache.put(stopId, stops.get(stopId), numDepartures, includeTerminus, entry.getValue());
+                        }
+                    }
+
+                    @Override
+                    public void onDepartureLoadError(VolleyError error) {
+                        Logger.w(TAG, "Prefetching departures failed", error);
+                    }
+                });
+        } catch (JSONException e) {
+            Logger.wtf(TAG, "Bad JSON!", e);
+        }
+    }
+
+    /**
+     * Take a part of the prefetch budget.
+     *
+     * @param wanted the number of stops to prefetch
+     * @param now the current time in ms
+     * @return the number of stops that may be prefetched
+     */
+    int takeBudget(int wanted, long now) {
+        if (mWindowStart < 0 || now - mWindowStart >= mBudgetWindowMillis) {
+            mWindowStart = now;
+            mUsed = 0;
+        }
+
+        int granted = Math.min(wanted, mBudget - mUsed);
+        mUsed += granted;
+        return granted;
+    }
+
+    private static Map<String, String> getUncachedStops(Cursor cursor, int maxStops, int numDepartures,
+                                                       boolean includeTerminus)
+    {
+        DepartureCache cache = DepartureCache.getInstance();
+        int idColumn = cursor.getColumnIndexOrThrow(StopListContract.Stop.COLUMN_NAME_GTFS_ID);
+        int typeColumn = cursor.getColumnIndexOrThrow(StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE);
+
+        Map<String, String> stops = new LinkedHashMap<>();
+        int position = cursor.getPosition();
+        try {
+            cursor.moveToPosition(-1);
+            for (int i = 0; i < maxStops && cursor.moveToNext(); i++) {
+                String stopId = cursor.getString(idColumn);
+                String locationType = cursor.getString(typeColumn);
+
+                if (locationType.equals("CITYBIKE_STATION")) {
+                    // Citybike stations have no departures
+                    continue;
+                }
+
+                if (cache.get(stopId, locationType, numDepartures, includeTerminus) == null) {
+                    stops.put(stopId, locationType);
+                }
+            }
+        } finally {
+            cursor.moveToPosition(position);
+        }
+
+        return stops;
+    }
+}
@@ -131,6 +131,7 @@ public class StopListActivity
                     @Override
                     protected void onPostExecute(AsyncTaskResult<Cursor> res) {
                         super.onPostExecute(res);
+                        maybePrefetchDepartures(res);
                         handleDatabaseQueryTaskResult(res);
                     }
                 }.execute(getShowCitybikeStations());
@@ -159,11 +160,25 @@ public class StopListActivity
             @Override
             protected void onPostExecute(AsyncTaskResult<Cursor> res) {
                 super.onPostExecute(res);
+                maybePrefetchDepartures(res);
                 handleDatabaseQueryTaskResult(res);
             }
         }.execute(location, getNumStops(), getShowCitybikeStations());
     }
 
+    /**
+     * Warm the departure cache for the first stops of a successful query.
+     *
+     * @param res the result of the query
+     */
+    private void maybePrefetchDepartures(AsyncTaskResult<Cursor> res) {
+        if (mIsStopped || !res.isSuccess()) {
+            return;
+        }
+
+        DeparturePrefetcher.getInstance().prefetch(this, res.getResult());
+    }
+
     private void showAcquiringLocationMessage() {
         String msg = getResources().getString(R.string.acquiring_location);
         setFragment(LoadingFragment.createWithMessage(msg));
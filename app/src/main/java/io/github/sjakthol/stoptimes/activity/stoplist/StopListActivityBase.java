@@ -66,7 +66,7 @@ public abstract class StopListActivityBase extends BaseActivity
         setToolbar();
 
         // Initialize the database connection
-        mDatabaseHelper = new StopListDatabaseHelper(this);
+        mDatabaseHelper = StopListDatabaseHelper.getInstance(this);
 
         // Create the stop list fragment
         mStopList = (StopListFragment) getFragment(FRAG_LIST);
@@ -93,16 +93,6 @@ public abstract class StopListActivityBase extends BaseActivity
         }
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-
-        // Close any leftover database connections
-        if (mDatabaseHelper != null) {
-            mDatabaseHelper.close();
-        }
-    }
-
     @Override
     public void onLocationUpdated(Location location) {
         if (mStopList != null) {
@@ -153,18 +143,39 @@ public abstract class StopListActivityBase extends BaseActivity
     }
 
     void handleDatabaseQueryTaskResult(AsyncTaskResult<Cursor> res) {
+        if (!res.isSuccess()) {
+            handleDatabaseQueryError(res.getError());
+        } else {
+            handleDatabaseQueryResult(res.getResult());
+        }
+    }
+
+    /**
+     * Show an error for a failed database query.
+     *
+     * @param error the reason for the failure
+     */
+    void handleDatabaseQueryError(Throwable error) {
         if (mIsStopped) {
             Logger.w(TAG, "Ignoring database task result after onStop()");
             return;
         }
 
-        if (!res.isSuccess()) {
-            Logger.e(TAG, "Task failed due to unknown exception", res.getError());
-            setFragment(new UnexpectedErrorFragment());
+        Logger.e(TAG, "Task failed due to unknown exception", error);
+        setFragment(new UnexpectedErrorFragment());
+    }
+
+    /**
+     * Show the stops of a successful database query.
+     *
+     * @param result a cursor with the stops
+     */
+    void handleDatabaseQueryResult(Cursor result) {
+        if (mIsStopped) {
+            Logger.w(TAG, "Ignoring database task result after onStop()");
             return;
         }
 
-        Cursor result = res.getResult();
         if (result.getCount() == 0) {
             Logger.i(TAG, "Result empty; requsting message to be shown");
             showEmptyListMessage();
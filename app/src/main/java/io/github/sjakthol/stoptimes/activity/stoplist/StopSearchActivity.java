@@ -1,6 +1,5 @@
 package io.github.sjakthol.stoptimes.activity.stoplist;
 
-import android.annotation.SuppressLint;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -12,17 +11,17 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import io.github.sjakthol.stoptimes.R;
-import io.github.sjakthol.stoptimes.db.task.QueryStopsTask;
-import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
+import io.github.sjakthol.stoptimes.digitransit.models.Stop;
 import io.github.sjakthol.stoptimes.utils.Logger;
 
 public class StopSearchActivity extends StopListActivityBase
-        implements SearchView.OnCloseListener, SearchView.OnQueryTextListener
+        implements SearchView.OnCloseListener, SearchView.OnQueryTextListener, StopSearchPipeline.Listener
 {
     private static final String TAG = StopSearchActivity.class.getSimpleName();
     private static final String BUNDLE_QUERY = "BUNDLE_QUERY";
 
     private String mQueryString;
+    private StopSearchPipeline mSearch;
 
     public StopSearchActivity() {
         super(R.id.stop_list_content);
@@ -39,6 +38,7 @@ public class StopSearchActivity extends StopListActivityBase
             Logger.i(TAG, "Restored query %s", mQueryString);
         }
 
+        mSearch = new StopSearchPipeline(mDatabaseHelper, this);
         showSearchExplanation();
 
         BottomNavigationView bottomBar = findViewById(R.id.navigation_bottom);
@@ -72,18 +72,42 @@ public class StopSearchActivity extends StopListActivityBase
         outState.putString(BUNDLE_QUERY, mQueryString);
     }
 
+    @Override
+    protected void onDestroy() {
+        mSearch.cancel();
+        super.onDestroy();
+    }
+
     @Override
     public boolean onQueryTextChange(String newText) {
-        performSearch(newText);
+        performSearch(newText, false);
         return true;
     }
 
     @Override
     public boolean onQueryTextSubmit(String query) {
-        performSearch(query);
+        performSearch(query, true);
         return true;
     }
 
+    @Override
+    public void onSearchResult(Cursor cursor) {
+        handleDatabaseQueryResult(cursor);
+    }
+
+    @Override
+    public void onSearchError(Throwable error) {
+        handleDatabaseQueryError(error);
+    }
+
+    @Override
+    public void onFavoriteStatusChanged(Stop stop, boolean isFavorite) {
+        super.onFavoriteStatusChanged(stop, isFavorite);
+
+        // The previous results have the old favorite status; don't reuse them
+        mSearch.invalidate();
+    }
+
     @Override
     public boolean onClose() {
         Logger.i(TAG, "Search closed; finishing");
@@ -95,24 +119,23 @@ public class StopSearchActivity extends StopListActivityBase
      * Perform a search with the given query.
      *
      * @param query the search query
+     * @param immediate whether to search right away instead of waiting for more keystrokes
      */
-    @SuppressLint("StaticFieldLeak")
-    private void performSearch(String query) {
+    private void performSearch(String query, boolean immediate) {
         mQueryString = query;
 
         if (TextUtils.isEmpty(query)) {
+            mSearch.cancel();
             showSearchExplanation();
             return;
         }
 
         Logger.i(TAG, "performSearch(query='%s')", query);
-        new QueryStopsTask(mDatabaseHelper) {
-            @Override
-            protected void onPostExecute(AsyncTaskResult<Cursor> res) {
-                super.onPostExecute(res);
-                handleDatabaseQueryTaskResult(res);
-            }
-        }.execute(query, getNumStops(), getShowCitybikeStations());
+        if (immediate) {
+            mSearch.searchNow(query, getNumStops(), getShowCitybikeStations());
+        } else {
+            mSearch.search(query, getNumStops(), getShowCitybikeStations());
+        }
     }
 
     @Override
@@ -0,0 +1,316 @@
+package io.github.sjakthol.stoptimes.activity.stoplist;
+
+import android.annotation.SuppressLint;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import io.github.sjakthol.stoptimes.db.StopListContract;
+import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
+import io.github.sjakthol.stoptimes.db.StopSearchIndex;
+import io.github.sjakthol.stoptimes.db.task.SearchStopsTask;
+import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A search-as-you-type pipeline for the stop search. It
+ * - debounces keystrokes so that only the query the user stopped at is searched,
+ * - cancels the search that is in progress when a new query arrives so that stale results
+ *   never overwrite newer ones, and
+ * - answers queries that extend the previous query from the previous results in memory if
+ *   those results contained every match.
+ *
+ * All methods MUST be called from the main thread.
+ */
+class StopSearchPipeline {
+    private static final String TAG = StopSearchPipeline.class.getSimpleName();
+
+    /**
+     * How long to wait for more keystrokes before searching.
+     */
+    static final long DEBOUNCE_MILLIS = 250;
+
+    interface Listener {
+        /**
+         * Called with the results of a search.
+         *
+         * @param cursor a cursor with the matching stops
+         */
+        void onSearchResult(Cursor cursor);
+
+        /**
+         * Called when a search fails.
+         *
+         * @param error the reason for the failure
+         */
+        void onSearchError(Throwable error);
+    }
+
+    private final StopListDatabaseHelper mDatabaseHelper;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private Runnable mPendingSearch;
+    private SearchStopsTask mTask;
+    private Snapshot mLastResult;
+
+    StopSearchPipeline(StopListDatabaseHelper dbHelper, Listener listener) {
+        mDatabaseHelper = dbHelper;
+        mListener = listener;
+    }
+
+    /**
+     * Search for stops once the user has stopped typing.
+     *
+     * @param query the query string
+     * @param limit the number of results to show
+     * @param includeCitybikes whether to include citybikes or not
+     */
+    void search(String query, String limit, boolean includeCitybikes) {
+        search(query, limit, includeCitybikes, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Search for stops immediately.
+     *
+     * @param query the query string
+     * @param limit the number of results to show
+     * @param includeCitybikes whether to include citybikes or not
+     */
+    void searchNow(String query, String limit, boolean includeCitybikes) {
+        search(query, limit, includeCitybikes, 0);
+    }
+
+    /**
+     * Cancel any pending or running search. Their results are never delivered.
+     */
+    void cancel() {
+        if (mPendingSearch != null) {
+            mHandler.removeCallbacks(mPendingSearch);
+            mPendingSearch = null;
+        }
+
+        if (mTask != null) {
+            Logger.d(TAG, "Cancelling superseded search");
+            mTask.abort();
+            mTask = null;
+        }
+    }
+
+    /**
+     * Forget the previous results, e.g. because the stops in them have changed.
+     */
+    void invalidate() {
+        mLastResult = null;
+    }
+
+    private void search(final String query, final String limit, final boolean includeCitybikes, long delay) {
+        cancel();
+
+        if (mLastResult != null && mLastResult.canNarrow(query, limit, includeCitybikes)) {
+            Logger.i(TAG, "Narrowing %d previous results for '%s'", mLastResult.mRows.size(), query);
+            mLastResult = mLastResult.narrow(query);
+            mListener.onSearchResult(mLastResult.toCursor());
+            return;
+        }
+
+        mPendingSearch = new Runnable() {
+            @Override
+            public void run() {
+                mPendingSearch = null;
+                startTask(query, limit, includeCitybikes);
+            }
+        };
+
+        mHandler.postDelayed(mPendingSearch, delay);
+    }
+
+    @SuppressLint("StaticFieldLeak")
+    private void startTask(final String query, final String limit, final boolean includeCitybikes) {
+        Logger.i(TAG, "Searching the database for '%s'", query);
+        mTask = new SearchStopsTask(mDatabaseHelper) {
+            @Override
+            protected void onPostExecute(AsyncTaskResult<Cursor> res) {
+                super.onPostExecute(res);
+
+                if (mTask != this) {
+                    // A newer search has been started; this result is stale
+                    closeResult(res);
+                    return;
+                }
+
+                mTask = null;
+                if (!res.isSuccess()) {
+                    mLastResult = null;
+                    mListener.onSearchError(res.getError());
+                    return;
+                }
+
+                Cursor cursor = res.getResult();
+                mLastResult = Snapshot.of(query, limit, includeCitybikes, cursor);
+                mListener.onSearchResult(cursor);
+            }
+
+            @Override
+            protected void onCancelled(AsyncTaskResult<Cursor> res) {
+                super.onCancelled(res);
+                closeResult(res);
+            }
+        };
+
+        mTask.execute(query, limit, includeCitybikes);
+    }
+
+    private static void closeResult(AsyncTaskResult<Cursor> res) {
+        if (res != null && res.isSuccess() && res.getResult() != null) {
+            res.getResult().close();
+        }
+    }
+
+    private static String normalize(String query) {
+        return query.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * An in-memory copy of a search result. The cursors are closed by the stop list once they
+     * are replaced, so the rows are copied out of them.
+     */
+    static class Snapshot {
+        private final String mQuery;
+        private final String mLimit;
+        private final boolean mIncludeCitybikes;
+        private final boolean mComplete;
+        private final String[] mColumns;
+        private final List<Object[]> mRows;
+
+        private Snapshot(String query, String limit, boolean includeCitybikes, boolean complete,
+                         String[] columns, List<Object[]> rows)
+        {
+            mQuery = query;
+            mLimit = limit;
+            mIncludeCitybikes = includeCitybikes;
+            mComplete = complete;
+            mColumns = columns;
+            mRows = rows;
+        }
+
+        /**
+         * Copy the rows of the given cursor and rewind it.
+         */
+        static Snapshot of(String query, String limit, boolean includeCitybikes, Cursor cursor) {
+            String[] columns = cursor.getColumnNames();
+            List<Object[]> rows = new ArrayList<>(cursor.getCount());
+
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            row[i] = cursor.getString(i);
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            row[i] = cursor.getBlob(i);
+                            break;
+                        default:
+                            row[i] = null;
+                    }
+                }
+                rows.add(row);
+            }
+            cursor.moveToPosition(-1);
+
+            // If the database returned fewer rows than requested, these are all the matches
+            boolean complete = rows.size() < Integer.parseInt(limit);
+            return new Snapshot(query, limit, includeCitybikes, complete, columns, rows);
+        }
+
+        /**
+         * Check if the results of the given query can be picked from this result. Appending
+         * to a query only ever removes matches, so a complete result contains all of them.
+         */
+        boolean canNarrow(String query, String limit, boolean includeCitybikes) {
+            return mComplete && mLimit.equals(limit) && mIncludeCitybikes == includeCitybikes &&
+                normalize(query).startsWith(normalize(mQuery));
+        }
+
+        /**
+         * Pick the rows that match the given query and order them like SearchStopsTask does.
+         */
+        Snapshot narrow(final String query) {
+            final int name = indexOf(StopListContract.Stop.COLUMN_NAME_NAME);
+            final int code = indexOf(StopListContract.Stop.COLUMN_NAME_CODE);
+            final int favorite = indexOf(StopListContract.Stop.COLUMN_NAME_IS_FAVORITE);
+
+            List<Object[]> rows = new ArrayList<>(mRows.size());
+            for (Object[] row : mRows) {
+                if (StopSearchIndex.matches(query, (String) row[name], (String) row[code])) {
+                    rows.add(row);
+                }
+            }
+
+            Collections.sort(rows, new Comparator<Object[]>() {
+                @Override
+                public int compare(Object[] a, Object[] b) {
+                    int rankA = StopSearchIndex.rank(query, (String) a[name], (String) a[code]);
+                    int rankB = StopSearchIndex.rank(query, (String) b[name], (String) b[code]);
+                    if (rankA != rankB) {
+                        return rankA < rankB ? -1 : 1;
+                    }
+
+                    boolean favA = a[favorite] != null && ((Long) a[favorite]) != 0;
+                    boolean favB = b[favorite] != null && ((Long) b[favorite]) != 0;
+                    if (favA != favB) {
+                        return favA ? -1 : 1;
+                    }
+
+                    return compareNames((String) a[name], (String) b[name]);
+                }
+            });
+
+            return new Snapshot(query, mLimit, mIncludeCitybikes, true, mColumns, rows);
+        }
+
+        /**
+         * Compare stop names like SQLite does; stops without a name come first.
+         */
+        private static int compareNames(String a, String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+
+            return a.compareTo(b);
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumns, mRows.size());
+            for (Object[] row : mRows) {
+                cursor.addRow(row);
+            }
+
+            return cursor;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < mColumns.length; i++) {
+                if (mColumns[i].equals(column)) {
+                    return i;
+                }
+            }
+
+            throw new IllegalArgumentException("No column " + column + " in search results");
+        }
+    }
+}
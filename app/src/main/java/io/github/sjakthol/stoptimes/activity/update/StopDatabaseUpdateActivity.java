@@ -34,20 +34,11 @@ public class StopDatabaseUpdateActivity extends BaseActivity implements NoConnec
         setContentView(R.layout.activity_stop_database_update);
         setToolbar();
 
-        mDbHelper = new StopListDatabaseHelper(this);
+        mDbHelper = StopListDatabaseHelper.getInstance(this);
 
         startUpdate();
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-
-        if (mDbHelper != null) {
-            mDbHelper.close();
-        }
-    }
-
     private void showLoadingIndicator() {
         LoadingFragment frag =
             LoadingFragment.createWithMessage(getString(R.string.db_update_loading_message));
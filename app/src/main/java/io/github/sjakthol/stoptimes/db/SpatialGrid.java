@@ -0,0 +1,43 @@
+package io.github.sjakthol.stoptimes.db;
+
+/**
+ * A fixed grid that splits the coordinate space into square cells. Each stop stores the cell
+ * it resides in so that nearby stops can be found with an index lookup instead of computing
+ * the distance to every stop in the database.
+ */
+public final class SpatialGrid {
+    /**
+     * The size of a single cell in degrees (about 1.1km in latitude).
+     */
+    public static final double CELL_SIZE = 0.01;
+
+    /**
+     * SQL expressions that compute the cells of a row; these MUST match latCell() and lonCell().
+     */
+    public static final String SQL_LAT_CELL =
+        "CAST((" + StopListContract.Stop.COLUMN_NAME_LAT + " + 90) / " + CELL_SIZE + " AS INTEGER)";
+    public static final String SQL_LON_CELL =
+        "CAST((" + StopListContract.Stop.COLUMN_NAME_LON + " + 180) / " + CELL_SIZE + " AS INTEGER)";
+
+    private SpatialGrid() {}
+
+    /**
+     * Get the index of the cell row the given latitude falls into.
+     *
+     * @param lat the latitude
+     * @return the cell index
+     */
+    public static int latCell(double lat) {
+        return (int) ((lat + 90) / CELL_SIZE);
+    }
+
+    /**
+     * Get the index of the cell column the given longitude falls into.
+     *
+     * @param lon the longitude
+     * @return the cell index
+     */
+    public static int lonCell(double lon) {
+        return (int) ((lon + 180) / CELL_SIZE);
+    }
+}
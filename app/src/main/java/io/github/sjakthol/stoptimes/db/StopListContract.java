@@ -20,8 +20,17 @@ public final class StopListContract {
         public static final String COLUMN_NAME_PARENT_STATION = "parent_station";
         public static final String COLUMN_NAME_ROUTE = "route";
         public static final String COLUMN_NAME_HEADSIGN = "headsign";
+        public static final String COLUMN_NAME_FINGERPRINT = "fingerprint";
+        public static final String COLUMN_NAME_CELL_LAT = "cell_lat";
+        public static final String COLUMN_NAME_CELL_LON = "cell_lon";
+        public static final String COLUMN_NAME_KEY = "key";
+        public static final String COLUMN_NAME_VALUE = "value";
         public static final String FAVORITES_TABLE_NAME = "favorites";
         public static final String STATIONS_TABLE_NAME = "stations";
         public static final String DEPARTURE_FILTERS_TABLE_NAME = "departure_filters";
+        public static final String METADATA_TABLE_NAME = "metadata";
+        public static final String STOPS_SEARCH_TABLE_NAME = "stops_search";
+        public static final String STATIONS_SEARCH_TABLE_NAME = "stations_search";
+        public static final String METADATA_KEY_DATASET_VERSION = "dataset_version";
     }
 }
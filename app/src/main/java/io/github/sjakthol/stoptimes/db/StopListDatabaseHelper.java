@@ -1,5 +1,6 @@
 package io.github.sjakthol.stoptimes.db;
 
+import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -8,10 +9,15 @@ import io.github.sjakthol.stoptimes.utils.Logger;
 
 /**
  * A helper for accessing the stop list database.
+ *
+ * The app shares a single helper through getInstance(). The database uses write-ahead logging
+ * so that SQLite keeps a pool of read-only connections next to the single writer connection:
+ * queries run concurrently with each other and with a stop database update, and see the
+ * data as it was before the update until it commits.
  */
 public class StopListDatabaseHelper extends SQLiteOpenHelper {
     private final String TAG = getClass().getSimpleName();
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 7;
     private static final String DATABASE_NAME = "stops.db";
     private static final String TEXT_TYPE = " TEXT";
     private static final String REAL_TYPE = " REAL";
@@ -28,6 +34,9 @@ public class StopListDatabaseHelper extends SQLiteOpenHelper {
             StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE + TEXT_TYPE + COMMA_SEP +
             StopListContract.Stop.COLUMN_NAME_PLATFORM_CODE + TEXT_TYPE + COMMA_SEP +
             StopListContract.Stop.COLUMN_NAME_PARENT_STATION + TEXT_TYPE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_FINGERPRINT + INT_TYPE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_CELL_LAT + INT_TYPE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_CELL_LON + INT_TYPE + COMMA_SEP +
             " FOREIGN KEY(" + StopListContract.Stop.COLUMN_NAME_PARENT_STATION + ") REFERENCES " +
                 StopListContract.Stop.STATIONS_TABLE_NAME + "(" + StopListContract.Stop.COLUMN_NAME_GTFS_ID + ")" +
         " )";
@@ -42,7 +51,10 @@ public class StopListDatabaseHelper extends SQLiteOpenHelper {
             StopListContract.Stop.COLUMN_NAME_VEHICLE_TYPE + INT_TYPE + COMMA_SEP +
             StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE + TEXT_TYPE + COMMA_SEP +
             StopListContract.Stop.COLUMN_NAME_PLATFORM_CODE + TEXT_TYPE + COMMA_SEP +
-            StopListContract.Stop.COLUMN_NAME_PARENT_STATION + TEXT_TYPE +
+            StopListContract.Stop.COLUMN_NAME_PARENT_STATION + TEXT_TYPE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_FINGERPRINT + INT_TYPE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_CELL_LAT + INT_TYPE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_CELL_LON + INT_TYPE +
         " )";
 
     private static final String SQL_CREATE_FAVORITES_TABLE =
@@ -59,8 +71,59 @@ public class StopListDatabaseHelper extends SQLiteOpenHelper {
                     StopListContract.Stop.COLUMN_NAME_ROUTE + TEXT_TYPE + " NOT NULL " + COMMA_SEP +
                     StopListContract.Stop.COLUMN_NAME_HEADSIGN + TEXT_TYPE + " NOT NULL " +
             " )";
+
     /**
-     * Create a new StopListDatabaseHelper for the given application context.
+     * The columns every stop query returns. Appending them to an index lets the query be
+     * answered from the index alone.
+     */
+    private static final String STOP_COLUMNS =
+        StopListContract.Stop.COLUMN_NAME_GTFS_ID + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_NAME + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_CODE + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_LAT + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_LON + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_PLATFORM_CODE + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_VEHICLE_TYPE + COMMA_SEP +
+        StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE;
+
+    // Covering indexes for nearby stop queries
+    private static final String SQL_CREATE_STOPS_CELL_INDEX =
+        "CREATE INDEX IF NOT EXISTS stops_cell_idx ON " + StopListContract.Stop.STOPS_TABLE_NAME + " (" +
+            StopListContract.Stop.COLUMN_NAME_CELL_LAT + COMMA_SEP + StopListContract.Stop.COLUMN_NAME_CELL_LON + COMMA_SEP +
+            STOP_COLUMNS + COMMA_SEP + StopListContract.Stop.COLUMN_NAME_PARENT_STATION +
+        ")";
+
+    private static final String SQL_CREATE_STATIONS_CELL_INDEX =
+        "CREATE INDEX IF NOT EXISTS stations_cell_idx ON " + StopListContract.Stop.STATIONS_TABLE_NAME + " (" +
+            StopListContract.Stop.COLUMN_NAME_CELL_LAT + COMMA_SEP + StopListContract.Stop.COLUMN_NAME_CELL_LON + COMMA_SEP +
+            STOP_COLUMNS + COMMA_SEP + StopListContract.Stop.COLUMN_NAME_PARENT_STATION +
+        ")";
+
+    // Covering index for name queries; stops are only listed if they are not part of a station
+    private static final String SQL_CREATE_STOPS_NAME_INDEX =
+        "CREATE INDEX IF NOT EXISTS stops_name_idx ON " + StopListContract.Stop.STOPS_TABLE_NAME + " (" +
+            StopListContract.Stop.COLUMN_NAME_PARENT_STATION + COMMA_SEP + STOP_COLUMNS +
+        ")";
+
+    private static final String SQL_CREATE_DEPARTURE_FILTERS_INDEX =
+        "CREATE INDEX IF NOT EXISTS departure_filters_idx ON " + StopListContract.Stop.DEPARTURE_FILTERS_TABLE_NAME + " (" +
+            StopListContract.Stop.COLUMN_NAME_GTFS_ID + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_ROUTE + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_HEADSIGN +
+        ")";
+
+    private static final String SQL_CREATE_METADATA_TABLE =
+        "CREATE TABLE IF NOT EXISTS " + StopListContract.Stop.METADATA_TABLE_NAME + " (" +
+            StopListContract.Stop.COLUMN_NAME_KEY + TEXT_TYPE + " PRIMARY KEY NOT NULL " + COMMA_SEP +
+            StopListContract.Stop.COLUMN_NAME_VALUE + TEXT_TYPE +
+        " )";
+
+    @SuppressLint("StaticFieldLeak")
+    private static StopListDatabaseHelper sInstance;
+
+    /**
+     * Create a new StopListDatabaseHelper for the given application context. Use
+     * getInstance() instead outside of tests.
      *
      * @param context an application context to tie this database
      */
@@ -69,6 +132,25 @@ public class StopListDatabaseHelper extends SQLiteOpenHelper {
         super(context, Helpers.isInJUnitTest() ? null : DATABASE_NAME, null, DATABASE_VERSION);
 
         Logger.i(TAG, "Using database at %s", this.getDatabaseName());
+
+        if (getDatabaseName() != null) {
+            // In-memory databases do not support WAL
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Get the helper shared by the whole process. The helper is never closed.
+     *
+     * @param context a context
+     * @return the shared helper
+     */
+    public static synchronized StopListDatabaseHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StopListDatabaseHelper(context.getApplicationContext());
+        }
+
+        return sInstance;
     }
 
     @Override
@@ -78,23 +160,72 @@ public class StopListDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(SQL_CREATE_STOPS_TABLE);
         db.execSQL(SQL_CREATE_FAVORITES_TABLE);
         db.execSQL(SQL_CREATE_DEPARTURE_FILTERS_TABLE);
+        db.execSQL(SQL_CREATE_METADATA_TABLE);
+        db.execSQL(SQL_CREATE_STOPS_CELL_INDEX);
+        db.execSQL(SQL_CREATE_STATIONS_CELL_INDEX);
+        db.execSQL(SQL_CREATE_STOPS_NAME_INDEX);
+        db.execSQL(SQL_CREATE_DEPARTURE_FILTERS_INDEX);
+        db.execSQL(StopSearchIndex.getCreateStatement(StopListContract.Stop.STOPS_SEARCH_TABLE_NAME));
+        db.execSQL(StopSearchIndex.getCreateStatement(StopListContract.Stop.STATIONS_SEARCH_TABLE_NAME));
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Logger.i(TAG, "Upgrading db from v%d to v%d", oldVersion, newVersion);
 
-        if (oldVersion == 1 && newVersion == 2) {
+        if (oldVersion == 1) {
             // Just drop the old table with the old schema
             db.execSQL("DROP TABLE " + StopListContract.Stop.STOPS_TABLE_NAME);
 
             // ...and make it look like we just created the table
             this.onCreate(db);
+            return;
         }
 
-        if (oldVersion == 2 && newVersion == 3) {
+        if (oldVersion < 3) {
             // Add new table
             db.execSQL(SQL_CREATE_DEPARTURE_FILTERS_TABLE);
         }
+
+        if (oldVersion < 4) {
+            // Add content fingerprints. Existing rows get a NULL fingerprint and are rewritten
+            // once on the next update.
+            db.execSQL("ALTER TABLE " + StopListContract.Stop.STOPS_TABLE_NAME +
+                " ADD COLUMN " + StopListContract.Stop.COLUMN_NAME_FINGERPRINT + INT_TYPE);
+            db.execSQL("ALTER TABLE " + StopListContract.Stop.STATIONS_TABLE_NAME +
+                " ADD COLUMN " + StopListContract.Stop.COLUMN_NAME_FINGERPRINT + INT_TYPE);
+            db.execSQL(SQL_CREATE_METADATA_TABLE);
+        }
+
+        if (oldVersion < 5) {
+            // Add the spatial grid and place the existing rows into it
+            for (String table : new String[]{StopListContract.Stop.STOPS_TABLE_NAME, StopListContract.Stop.STATIONS_TABLE_NAME}) {
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + StopListContract.Stop.COLUMN_NAME_CELL_LAT + INT_TYPE);
+                db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + StopListContract.Stop.COLUMN_NAME_CELL_LON + INT_TYPE);
+                db.execSQL("UPDATE " + table + " SET " +
+                    StopListContract.Stop.COLUMN_NAME_CELL_LAT + " = " + SpatialGrid.SQL_LAT_CELL + COMMA_SEP +
+                    StopListContract.Stop.COLUMN_NAME_CELL_LON + " = " + SpatialGrid.SQL_LON_CELL);
+            }
+
+            db.execSQL(SQL_CREATE_STOPS_CELL_INDEX);
+            db.execSQL(SQL_CREATE_STATIONS_CELL_INDEX);
+        }
+
+        if (oldVersion < 6) {
+            // Add the full-text search index and fill it with the existing stops
+            db.execSQL(StopSearchIndex.getCreateStatement(StopListContract.Stop.STOPS_SEARCH_TABLE_NAME));
+            db.execSQL(StopSearchIndex.getCreateStatement(StopListContract.Stop.STATIONS_SEARCH_TABLE_NAME));
+            StopSearchIndex.rebuild(db);
+        }
+
+        if (oldVersion < 7) {
+            // Replace the cell indexes with covering ones and add the other indexes
+            db.execSQL("DROP INDEX IF EXISTS stops_cell_idx");
+            db.execSQL("DROP INDEX IF EXISTS stations_cell_idx");
+            db.execSQL(SQL_CREATE_STOPS_CELL_INDEX);
+            db.execSQL(SQL_CREATE_STATIONS_CELL_INDEX);
+            db.execSQL(SQL_CREATE_STOPS_NAME_INDEX);
+            db.execSQL(SQL_CREATE_DEPARTURE_FILTERS_INDEX);
+        }
     }
 }
\ No newline at end of file
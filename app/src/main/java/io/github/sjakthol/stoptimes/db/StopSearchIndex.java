@@ -0,0 +1,151 @@
+package io.github.sjakthol.stoptimes.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+import java.util.Locale;
+
+/**
+ * Helpers for the FTS4 full-text index over stop and station names and codes. The index
+ * tables use the rowid of the indexed row as their docid.
+ *
+ * The simple tokenizer of SQLite only folds the case of ASCII characters, so all text is
+ * lowercased here before it is indexed or matched.
+ */
+public final class StopSearchIndex {
+    private static final String TAG = StopSearchIndex.class.getSimpleName();
+    private static final String WORD_SEPARATOR = "[^\\p{L}\\p{N}]+";
+
+    private StopSearchIndex() {}
+
+    /**
+     * Get the SQL statement that creates the index table for the given table.
+     *
+     * @param searchTable the name of the search table
+     * @return a CREATE VIRTUAL TABLE statement
+     */
+    static String getCreateStatement(String searchTable) {
+        return "CREATE VIRTUAL TABLE IF NOT EXISTS " + searchTable + " USING fts4(" +
+            StopListContract.Stop.COLUMN_NAME_NAME + ", " +
+            StopListContract.Stop.COLUMN_NAME_CODE + ", " +
+            "prefix=\"2,3\"" +
+        ")";
+    }
+
+    /**
+     * Rebuild the search index from the current contents of the stops and stations tables.
+     * The caller should wrap this into a transaction.
+     *
+     * @param db the database
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        long start = System.nanoTime();
+        int count = rebuild(db, StopListContract.Stop.STOPS_TABLE_NAME, StopListContract.Stop.STOPS_SEARCH_TABLE_NAME);
+        count += rebuild(db, StopListContract.Stop.STATIONS_TABLE_NAME, StopListContract.Stop.STATIONS_SEARCH_TABLE_NAME);
+        Logger.i(TAG, "Indexed %d stops in %dms", count, (System.nanoTime() - start) / 1000000);
+    }
+
+    private static int rebuild(SQLiteDatabase db, String table, String searchTable) {
+        db.delete(searchTable, null, null);
+
+        SQLiteStatement insert = db.compileStatement(
+            "INSERT INTO " + searchTable + " (docid, " +
+                StopListContract.Stop.COLUMN_NAME_NAME + ", " + StopListContract.Stop.COLUMN_NAME_CODE +
+            ") VALUES (?, ?, ?)");
+        Cursor cursor = db.query(table, new String[]{
+            "_rowid_", StopListContract.Stop.COLUMN_NAME_NAME, StopListContract.Stop.COLUMN_NAME_CODE
+        }, null, null, null, null, null);
+
+        try {
+            while (cursor.moveToNext()) {
+                insert.bindLong(1, cursor.getLong(0));
+                insert.bindString(2, normalize(cursor.getString(1)));
+                insert.bindString(3, normalize(cursor.getString(2)));
+                insert.executeInsert();
+            }
+
+            // Merge the index segments built above into one
+            db.execSQL("INSERT INTO " + searchTable + " (" + searchTable + ") VALUES ('optimize')");
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Convert a user query into an FTS MATCH expression. Each word of the query becomes a
+     * prefix term and all of them must match.
+     *
+     * @param query the raw query
+     * @return the MATCH expression; empty if the query has no searchable words
+     */
+    public static String buildMatchQuery(String query) {
+        StringBuilder match = new StringBuilder();
+        for (String token : normalize(query).split(WORD_SEPARATOR)) {
+            if (!token.isEmpty()) {
+                match.append(match.length() == 0 ? "" : " ").append(token).append('*');
+            }
+        }
+
+        return match.toString();
+    }
+
+    /**
+     * Check if a stop matches the query the same way the MATCH expression returned by
+     * buildMatchQuery() does: every word of the query must be a prefix of a word in the name
+     * or code.
+     *
+     * @param query the raw query
+     * @param name the stop name
+     * @param code the stop code
+     * @return true if the stop matches
+     */
+    public static boolean matches(String query, String name, String code) {
+        String[] words = (normalize(name) + " " + normalize(code)).split(WORD_SEPARATOR);
+        for (String token : normalize(query).split(WORD_SEPARATOR)) {
+            if (token.isEmpty()) {
+                continue;
+            }
+
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(token)) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the match quality tier of a stop for the given query, mirroring the ORDER BY clause
+     * of SearchStopsTask: 0 for an exact name or code match, 1 for a name prefix match and 2
+     * for any other match.
+     *
+     * @param query the raw query
+     * @param name the stop name
+     * @param code the stop code
+     * @return the tier; lower is better
+     */
+    public static int rank(String query, String name, String code) {
+        String q = query.trim();
+        if (q.equalsIgnoreCase(name) || q.equalsIgnoreCase(code)) {
+            return 0;
+        }
+
+        return normalize(name).startsWith(normalize(q)) ? 1 : 2;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,155 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.os.Process;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The executors that run database tasks. Reads run on a small pool of threads so that they
+ * can run concurrently, and writes run one at a time on a lane of their own so that a long
+ * stop database update or a burst of writes never delays the reads queued after them.
+ *
+ * The time each task spends waiting in the queue is recorded for each lane.
+ */
+final class DatabaseExecutor extends ThreadPoolExecutor {
+    private static final String TAG = DatabaseExecutor.class.getSimpleName();
+
+    /**
+     * The number of concurrent readers.
+     */
+    static final int READ_THREADS = 3;
+
+    /**
+     * Idle threads are stopped after this.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Waits longer than this are logged as warnings.
+     */
+    private static final long SLOW_WAIT_MILLIS = 100;
+
+    static final DatabaseExecutor READS = new DatabaseExecutor("read", READ_THREADS, new LaneThreadFactory("read"));
+    static final DatabaseExecutor WRITES = new DatabaseExecutor("write", 1, new LaneThreadFactory("write"));
+
+    private final String mName;
+    private final Map<Runnable, Long> mEnqueued = new ConcurrentHashMap<>();
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mTotalWaitNanos = new AtomicLong();
+    private final AtomicLong mMaxWaitNanos = new AtomicLong();
+
+    /**
+     * Create a new lane.
+     *
+     * @param name the name of the lane
+     * @param threads the number of threads that run tasks concurrently
+     * @param factory the factory for the threads
+     */
+    DatabaseExecutor(String name, int threads, ThreadFactory factory) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+        allowCoreThreadTimeOut(true);
+        mName = name;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        mEnqueued.put(command, System.nanoTime());
+        try {
+            super.execute(command);
+        } catch (RejectedExecutionException e) {
+            mEnqueued.remove(command);
+            throw e;
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+
+        Long enqueued = mEnqueued.remove(r);
+        if (enqueued == null) {
+            return;
+        }
+
+        long wait = System.nanoTime() - enqueued;
+        mStarted.incrementAndGet();
+        mTotalWaitNanos.addAndGet(wait);
+        long max;
+        do {
+            max = mMaxWaitNanos.get();
+        } while (wait > max && !mMaxWaitNanos.compareAndSet(max, wait));
+
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(wait);
+        if (waitMillis > SLOW_WAIT_MILLIS) {
+            Logger.w(TAG, "Task waited %dms in the %s lane (%d queued)", waitMillis, mName, getQueue().size());
+        } else {
+            Logger.d(TAG, "Task waited %dms in the %s lane", waitMillis, mName);
+        }
+    }
+
+    @Override
+    public void purge() {
+        super.purge();
+
+        // Forget the cancelled tasks that were dropped from the queue
+        for (Runnable r : mEnqueued.keySet()) {
+            if (r instanceof Future && ((Future<?>) r).isCancelled()) {
+                mEnqueued.remove(r);
+            }
+        }
+    }
+
+    /**
+     * @return the number of tasks that have started
+     */
+    long getStartedCount() {
+        return mStarted.get();
+    }
+
+    /**
+     * @return the total time started tasks have waited in the queue in nanoseconds
+     */
+    long getTotalWaitNanos() {
+        return mTotalWaitNanos.get();
+    }
+
+    /**
+     * @return the longest time a task has waited in the queue in nanoseconds
+     */
+    long getMaxWaitNanos() {
+        return mMaxWaitNanos.get();
+    }
+
+    /**
+     * A factory for background priority threads, the same priority AsyncTask uses.
+     */
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final String mName;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        LaneThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "DatabaseTask-" + mName + "-" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -1,16 +1,22 @@
 package io.github.sjakthol.stoptimes.db.task;
 
 import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
 import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
+import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
 import io.github.sjakthol.stoptimes.utils.FallibleAsyncTask;
 
 /**
  * An abstract interface for running database queries in a background thread.
  *
  * Extending classes must implement the method runTask() that receives two arguments:
- *  (1) a read-write SQLiteDatabase
+ *  (1) a SQLiteDatabase; read tasks MUST NOT modify it
  *  (2) arguments of type T passed to the execute() method AsyncTask
  * The method should return an object of type V with the results of the computation (e.g. cursor).
+ *
+ * Tasks MUST be started with submit() instead of execute(). Tasks that modify the database
+ * override isWrite() and run one at a time on the write lane of DatabaseExecutor; other tasks
+ * run concurrently on the read lane.
  */
 abstract class DatabaseTask<T, V> extends FallibleAsyncTask<T, V> {
     /**
@@ -18,6 +24,11 @@ abstract class DatabaseTask<T, V> extends FallibleAsyncTask<T, V> {
      */
     private final StopListDatabaseHelper mDbHelper;
 
+    /**
+     * The lane the task was submitted to.
+     */
+    private DatabaseExecutor mExecutor;
+
     /**
      * Create a DatabaseTask for the given StopListDatabaseHelper.
      *
@@ -27,16 +38,54 @@ abstract class DatabaseTask<T, V> extends FallibleAsyncTask<T, V> {
         mDbHelper = dbHelper;
     }
 
+    /**
+     * Check if this task modifies the database.
+     *
+     * @return true if the task must run on the write lane
+     */
+    protected boolean isWrite() {
+        return false;
+    }
+
+    /**
+     * Execute the task on the lane that matches isWrite().
+     *
+     * @param params arguments for runTask()
+     * @return this task
+     */
+    @SafeVarargs
+    public final AsyncTask<T, Void, AsyncTaskResult<V>> submit(T... params) {
+        mExecutor = isWrite() ? DatabaseExecutor.WRITES : DatabaseExecutor.READS;
+        return executeOnExecutor(mExecutor, params);
+    }
+
+    /**
+     * Cancel the task. A task that has not started yet is dropped from the queue right away
+     * instead of occupying it until its turn comes.
+     *
+     * @return false if the task could not be cancelled, e.g. because it has already finished
+     */
+    public final boolean abort() {
+        boolean cancelled = cancel(false);
+        if (cancelled && mExecutor != null) {
+            mExecutor.purge();
+        }
+
+        return cancelled;
+    }
+
     @Override
     public V runTask(T... params) {
-        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // Both return the same database; its read-only statements run on the reader
+        // connections of the pool when write-ahead logging is enabled
+        SQLiteDatabase db = isWrite() ? mDbHelper.getWritableDatabase() : mDbHelper.getReadableDatabase();
         return runTask(db, params);
     }
 
     /**
      * A method that performs the required queries against the database.
      *
-     * @param db a read-write database to work with
+     * @param db the database to work with
      * @param params arguments passed to .execute() of AsyncTask
      *
      * @return cursor containing any query results
@@ -24,7 +24,7 @@ public class GetDepartureFiltersTask extends QueryStopsDatabaseTask<Bundle> {
         super(dbHelper);
     }
 
-    private static final String GET_DEPARTURE_FILTERS_SQL =
+    static final String GET_DEPARTURE_FILTERS_SQL =
         "SELECT " +
             COLUMN_NAME_GTFS_ID + ", " +
             COLUMN_NAME_ROUTE + ", " +
@@ -49,6 +49,6 @@ public class GetDepartureFiltersTask extends QueryStopsDatabaseTask<Bundle> {
     public AsyncTask<Bundle, Void, AsyncTaskResult<Cursor>> execute(String stopId) {
         Bundle bundle = new Bundle();
         bundle.putString(BUNDLE_STOPID, stopId);
-        return this.execute(bundle);
+        return submit(bundle);
     }
 }
@@ -22,7 +22,7 @@ public class GetFavoriteStopsTask extends QueryStopsDatabaseTask<Bundle> {
         super(dbHelper);
     }
 
-    private static final String GET_FAVORITES_SQL =
+    static final String GET_FAVORITES_SQL =
         "SELECT * FROM (" +
             "SELECT " +
                 TextUtils.join(", ", STOP_QUERY_COLUMNS) +
@@ -60,6 +60,6 @@ public class GetFavoriteStopsTask extends QueryStopsDatabaseTask<Bundle> {
     public AsyncTask<Bundle, Void, AsyncTaskResult<Cursor>> execute(boolean includeCitybikes) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(BUNDLE_CITYBIKES, includeCitybikes);
-        return this.execute(bundle);
+        return submit(bundle);
     }
 }
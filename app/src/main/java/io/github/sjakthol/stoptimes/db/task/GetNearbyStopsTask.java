@@ -6,6 +6,7 @@ import android.location.Location;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.TextUtils;
+import io.github.sjakthol.stoptimes.db.SpatialGrid;
 import io.github.sjakthol.stoptimes.db.StopListContract;
 import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
 import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
@@ -16,27 +17,48 @@ public class GetNearbyStopsTask extends QueryStopsDatabaseTask<Bundle> {
     private static final String BUNDLE_LOCATION = "BUNDLE_LOCATION";
     private static final String BUNDLE_LIMIT = "BUNDLE_LIMIT";
 
-    private static final String SQL_QUERY =
-        "SELECT * FROM (" +
+    /**
+     * The largest ring (in grid cells) searched before falling back to a full scan.
+     */
+    private static final int MAX_RING = 64;
+
+    private static final String DISTANCE_ESTIMATE = "(? - lat) * (? - lat) + (? - lon) * (? - lon) as distance_estimate";
+    private static final String CELL_CONDITION =
+        " WHERE " + StopListContract.Stop.COLUMN_NAME_CELL_LAT + " BETWEEN ? AND ?" +
+        " AND " + StopListContract.Stop.COLUMN_NAME_CELL_LON + " BETWEEN ? AND ?";
+
+    static final String SQL_QUERY = buildQuery("", "");
+    static final String SQL_QUERY_BOUNDED = buildQuery(CELL_CONDITION, CELL_CONDITION);
+
+    /**
+     * Build the nearby stop query.
+     *
+     * @param stopsCondition an additional WHERE clause for the stops table
+     * @param stationsCondition an additional WHERE clause for the stations table
+     * @return the query
+     */
+    private static String buildQuery(String stopsCondition, String stationsCondition) {
+        return "SELECT * FROM (" +
             "SELECT " +
-                TextUtils.join(", ", STOP_QUERY_COLUMNS) + ", " +
-                "(? - lat) * (? - lat) + (? - lon) * (? - lon) as distance_estimate" +
+                TextUtils.join(", ", STOP_QUERY_COLUMNS) + ", " + DISTANCE_ESTIMATE +
             " FROM " +
                 StopListContract.Stop.STOPS_TABLE_NAME +
             " NATURAL LEFT JOIN " +
                 StopListContract.Stop.FAVORITES_TABLE_NAME +
+            stopsCondition +
             " UNION " +
             "SELECT " +
-                TextUtils.join(", ", STATION_QUERY_COLUMNS) + ", " +
-                "(? - lat) * (? - lat) + (? - lon) * (? - lon) as distance_estimate" +
+                TextUtils.join(", ", STATION_QUERY_COLUMNS) + ", " + DISTANCE_ESTIMATE +
             " FROM " +
                 StopListContract.Stop.STATIONS_TABLE_NAME +
             " NATURAL LEFT JOIN " +
                 StopListContract.Stop.FAVORITES_TABLE_NAME +
+            stationsCondition +
         ") " +
         " WHERE " + StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE + " != ? " +
         " ORDER BY distance_estimate " +
         " LIMIT ?";
+    }
 
     /**
      * Create a GetNearbyStopsTask for the given StopListDatabaseHelper.
@@ -58,12 +80,104 @@ public class GetNearbyStopsTask extends QueryStopsDatabaseTask<Bundle> {
 
         String lat = String.valueOf(location.getLatitude());
         String lon = String.valueOf(location.getLongitude());
+        String excluded = citybikes ? "" : "CITYBIKE_STATION";
+        int count = Integer.parseInt(limit);
 
-        String[] args = {lat, lat, lon, lon, lat, lat, lon, lon, citybikes ? "" : "CITYBIKE_STATION", limit};
+        StopLocationIndex index = StopLocationIndex.get(db);
+        if (index != null) {
+            return queryIndex(db, index, location, count, citybikes);
+        }
 
+        // Look at the cells around the location first and grow the ring until the nearest
+        // stops are guaranteed to be inside it.
+        int latCell = SpatialGrid.latCell(location.getLatitude());
+        int lonCell = SpatialGrid.lonCell(location.getLongitude());
+        for (int ring = 1; ring <= MAX_RING; ring *= 2) {
+            String minLat = String.valueOf(latCell - ring);
+            String maxLat = String.valueOf(latCell + ring);
+            String minLon = String.valueOf(lonCell - ring);
+            String maxLon = String.valueOf(lonCell + ring);
+
+            String[] args = {
+                lat, lat, lon, lon, minLat, maxLat, minLon, maxLon,
+                lat, lat, lon, lon, minLat, maxLat, minLon, maxLon,
+                excluded, limit
+            };
+
+            Cursor cursor = db.rawQuery(SQL_QUERY_BOUNDED, args);
+            if (isComplete(cursor, count, ring)) {
+                Logger.d(TAG, "Found nearby stops within %d cells", ring);
+                return cursor;
+            }
+
+            cursor.close();
+        }
+
+        // Not enough stops nearby or stops have not been placed in the grid; scan everything
+        Logger.d(TAG, "Falling back to a full scan");
+        String[] args = {lat, lat, lon, lon, lat, lat, lon, lon, excluded, limit};
         return db.rawQuery(SQL_QUERY, args);
     }
 
+    /**
+     * Find the nearest stops from the in-memory index and fetch only those rows from the
+     * database.
+     */
+    private static Cursor queryIndex(SQLiteDatabase db, StopLocationIndex index, Location location,
+                                     int count, boolean citybikes)
+    {
+        int[] nearest = index.nearest(location.getLatitude(), location.getLongitude(), count, citybikes);
+
+        StringBuilder stops = new StringBuilder();
+        StringBuilder stations = new StringBuilder();
+        for (int point : nearest) {
+            StringBuilder ids = index.isStation(point) ? stations : stops;
+            ids.append(ids.length() == 0 ? "" : ",").append(index.getRowId(point));
+        }
+
+        String lat = String.valueOf(location.getLatitude());
+        String lon = String.valueOf(location.getLongitude());
+        String[] args = {lat, lat, lon, lon, lat, lat, lon, lon, citybikes ? "" : "CITYBIKE_STATION", String.valueOf(count)};
+
+        Logger.d(TAG, "Found %d nearby stops from the index", nearest.length);
+        return db.rawQuery(buildIndexQuery(stops, stations), args);
+    }
+
+    /**
+     * Build the nearby stop query for the rows found from the index.
+     *
+     * @param stops a comma separated list of the rowids of the stops
+     * @param stations a comma separated list of the rowids of the stations
+     * @return the query
+     */
+    static String buildIndexQuery(CharSequence stops, CharSequence stations) {
+        return buildQuery(
+            " WHERE " + StopListContract.Stop.STOPS_TABLE_NAME + "._rowid_ IN (" + stops + ")",
+            " WHERE " + StopListContract.Stop.STATIONS_TABLE_NAME + "._rowid_ IN (" + stations + ")");
+    }
+
+    /**
+     * Check if a bounded query found the nearest stops. The ring covers at least ring cells in
+     * every direction from the location. If the furthest result is closer than that, no stop
+     * outside the ring can be closer than the results.
+     *
+     * @param cursor the cursor returned by the bounded query
+     * @param count the number of stops requested
+     * @param ring the radius of the ring in cells
+     * @return true if the cursor contains the nearest stops
+     */
+    private static boolean isComplete(Cursor cursor, int count, int ring) {
+        if (cursor.getCount() < count || !cursor.moveToLast()) {
+            return false;
+        }
+
+        double distance = cursor.getDouble(cursor.getColumnIndexOrThrow("distance_estimate"));
+        double radius = ring * SpatialGrid.CELL_SIZE;
+
+        cursor.moveToPosition(-1);
+        return distance <= radius * radius;
+    }
+
     /**
      * Get the stops are near the given location.
      *
@@ -76,6 +190,6 @@ public class GetNearbyStopsTask extends QueryStopsDatabaseTask<Bundle> {
         bundle.putParcelable(BUNDLE_LOCATION, location);
         bundle.putString(BUNDLE_LIMIT, limit);
         bundle.putBoolean(BUNDLE_CITYBIKES, includeCitybikes);
-        return this.execute(bundle);
+        return submit(bundle);
     }
 }
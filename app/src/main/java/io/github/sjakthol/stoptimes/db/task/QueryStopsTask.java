@@ -33,7 +33,7 @@ public class QueryStopsTask extends QueryStopsDatabaseTask<Bundle> {
         super(dbHelper);
     }
 
-    private static final String SQL_QUERY_STOPS =
+    static final String SQL_QUERY_STOPS =
         "SELECT * FROM (" +
             "SELECT " + TextUtils.join(", ", STOP_QUERY_COLUMNS) +
             " FROM " + StopListContract.Stop.STOPS_TABLE_NAME +
@@ -93,6 +93,6 @@ public class QueryStopsTask extends QueryStopsDatabaseTask<Bundle> {
         bundle.putString(BUNDLE_QUERY, query);
         bundle.putString(BUNDLE_LIMIT, limit);
         bundle.putBoolean(BUNDLE_CITYBIKES, includeCitybikes);
-        return this.execute(bundle);
+        return submit(bundle);
     }
 }
@@ -0,0 +1,99 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.text.TextUtils;
+import io.github.sjakthol.stoptimes.db.StopListContract;
+import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
+import io.github.sjakthol.stoptimes.db.StopSearchIndex;
+import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+/**
+ * A task that searches stops by name and code using the full-text search index. Every word
+ * of the query is matched as a prefix of a word in the stop name or code.
+ *
+ * The results are ranked by match quality (exact match, name prefix, word prefix) and then
+ * by favorite status.
+ */
+public class SearchStopsTask extends QueryStopsDatabaseTask<Bundle> {
+    private static final String TAG = SearchStopsTask.class.getSimpleName();
+    private static final String BUNDLE_QUERY = "BUNDLE_QUERY";
+    private static final String BUNDLE_LIMIT = "BUNDLE_LIMIT";
+
+    static final String SQL_SEARCH_STOPS =
+        "SELECT * FROM (" +
+            "SELECT " + TextUtils.join(", ", STOP_QUERY_COLUMNS) +
+            " FROM " + StopListContract.Stop.STOPS_TABLE_NAME +
+            " NATURAL LEFT JOIN " + StopListContract.Stop.FAVORITES_TABLE_NAME +
+            " WHERE " + StopListContract.Stop.STOPS_TABLE_NAME + "._rowid_ IN (" +
+                "SELECT docid FROM " + StopListContract.Stop.STOPS_SEARCH_TABLE_NAME +
+                " WHERE " + StopListContract.Stop.STOPS_SEARCH_TABLE_NAME + " MATCH ?" +
+            ")" +
+            // The unary + keeps SQLite from scanning the parent station index instead of
+            // looking up the matched rows
+            "   AND +" + StopListContract.Stop.COLUMN_NAME_PARENT_STATION + " IS NULL" +
+            " UNION " +
+            "SELECT " + TextUtils.join(", ", STATION_QUERY_COLUMNS) +
+            " FROM " + StopListContract.Stop.STATIONS_TABLE_NAME +
+            " NATURAL LEFT JOIN " + StopListContract.Stop.FAVORITES_TABLE_NAME +
+            " WHERE " + StopListContract.Stop.STATIONS_TABLE_NAME + "._rowid_ IN (" +
+                "SELECT docid FROM " + StopListContract.Stop.STATIONS_SEARCH_TABLE_NAME +
+                " WHERE " + StopListContract.Stop.STATIONS_SEARCH_TABLE_NAME + " MATCH ?" +
+            ")" +
+            ") " +
+            "WHERE " + StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE + " != ? " +
+            "ORDER BY " +
+                "CASE" +
+                " WHEN " + StopListContract.Stop.COLUMN_NAME_NAME + " = ? COLLATE NOCASE" +
+                "   OR " + StopListContract.Stop.COLUMN_NAME_CODE + " = ? COLLATE NOCASE THEN 0" +
+                " WHEN " + StopListContract.Stop.COLUMN_NAME_NAME + " LIKE ? ESCAPE '\\' THEN 1" +
+                " ELSE 2 END, " +
+                StopListContract.Stop.COLUMN_NAME_IS_FAVORITE + " DESC, " +
+                StopListContract.Stop.COLUMN_NAME_NAME +
+            " LIMIT ?";
+
+    /**
+     * Create a SearchStopsTask for the given StopListDatabaseHelper.
+     *
+     * @param dbHelper the database helper instance
+     */
+    public SearchStopsTask(StopListDatabaseHelper dbHelper) {
+        super(dbHelper);
+    }
+
+    @Override
+    public Cursor runTask(SQLiteDatabase db, Bundle... params) {
+        Bundle data = params[0];
+
+        String query = data.getString(BUNDLE_QUERY, "").trim();
+        String match = StopSearchIndex.buildMatchQuery(query);
+        String prefix = query.replaceAll("([\\\\%_])", "\\\\$1") + "%";
+        String limit = data.getString(BUNDLE_LIMIT);
+        boolean citybikes = data.getBoolean(BUNDLE_CITYBIKES);
+
+        Logger.d(TAG, "Running search: match='%s', limit='%s'", match, limit);
+
+        String[] selection = {
+            match, match, citybikes ? "" : "CITYBIKE_STATION", query, query, prefix, limit
+        };
+        return db.rawQuery(SQL_SEARCH_STOPS, selection);
+    }
+
+    /**
+     * Search stops matching the query
+     *
+     * @param query the query string
+     * @param limit the number of results to show
+     * @param includeCitybikes whether to include citybikes or not
+     */
+    public AsyncTask<Bundle, Void, AsyncTaskResult<Cursor>> execute(String query, String limit, boolean includeCitybikes) {
+        Bundle bundle = new Bundle();
+        bundle.putString(BUNDLE_QUERY, query);
+        bundle.putString(BUNDLE_LIMIT, limit);
+        bundle.putBoolean(BUNDLE_CITYBIKES, includeCitybikes);
+        return submit(bundle);
+    }
+}
@@ -0,0 +1,317 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import io.github.sjakthol.stoptimes.db.StopListContract;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+/**
+ * An in-memory k-d tree over the coordinates of all stops and stations. The tree is stored in
+ * flat primitive arrays: the points are reordered so that the median of each range [lo, hi) is
+ * the node that splits that range, alternating between latitude and longitude.
+ *
+ * A single index is kept per process. It is loaded lazily and reloaded whenever the dataset
+ * version recorded by UpdateDatabaseTask changes.
+ */
+class StopLocationIndex {
+    private static final String TAG = StopLocationIndex.class.getSimpleName();
+
+    static final int FLAG_STATION = 1;
+    static final int FLAG_CITYBIKE = 2;
+
+    private static StopLocationIndex sIndex;
+    private static String sIndexVersion;
+
+    private final double[] mLat;
+    private final double[] mLon;
+    private final long[] mRowIds;
+    private final int[] mFlags;
+
+    /**
+     * Build an index over the given points. The arrays are reordered in place.
+     *
+     * @param lat the latitudes
+     * @param lon the longitudes
+     * @param rowIds the rowids of the points in their tables
+     * @param flags FLAG_* bits for each point
+     */
+    StopLocationIndex(double[] lat, double[] lon, long[] rowIds, int[] flags) {
+        mLat = lat;
+        mLon = lon;
+        mRowIds = rowIds;
+        mFlags = flags;
+
+        build(0, lat.length, 0);
+    }
+
+    /**
+     * Get the index for the given database. The index is only available once the database has
+     * been populated by UpdateDatabaseTask.
+     *
+     * @param db the database
+     * @return the index or null if the database has no recorded dataset version
+     */
+    static synchronized StopLocationIndex get(SQLiteDatabase db) {
+        String version = StopWriter.getDatasetVersion(db);
+        if (version == null) {
+            return null;
+        }
+
+        if (sIndex == null || !version.equals(sIndexVersion)) {
+            long start = System.nanoTime();
+            sIndex = load(db);
+            sIndexVersion = version;
+            Logger.i(TAG, "Loaded %d stops for dataset %s in %dms",
+                sIndex.size(), version, (System.nanoTime() - start) / 1000000);
+        }
+
+        return sIndex;
+    }
+
+    /**
+     * Drop the cached index. The next call to get() reloads it from the database.
+     */
+    static synchronized void invalidate() {
+        sIndex = null;
+        sIndexVersion = null;
+    }
+
+    /**
+     * Load the coordinates of all stops and stations from the database.
+     */
+    private static StopLocationIndex load(SQLiteDatabase db) {
+        Cursor stops = query(db, StopListContract.Stop.STOPS_TABLE_NAME);
+        Cursor stations = query(db, StopListContract.Stop.STATIONS_TABLE_NAME);
+        try {
+            int size = stops.getCount() + stations.getCount();
+            double[] lat = new double[size];
+            double[] lon = new double[size];
+            long[] rowIds = new long[size];
+            int[] flags = new int[size];
+
+            int i = 0;
+            for (Cursor cursor : new Cursor[]{stops, stations}) {
+                int baseFlags = cursor == stations ? FLAG_STATION : 0;
+                while (cursor.moveToNext()) {
+                    rowIds[i] = cursor.getLong(0);
+                    lat[i] = cursor.getDouble(1);
+                    lon[i] = cursor.getDouble(2);
+                    flags[i] = "CITYBIKE_STATION".equals(cursor.getString(3)) ? baseFlags | FLAG_CITYBIKE : baseFlags;
+                    i++;
+                }
+            }
+
+            return new StopLocationIndex(lat, lon, rowIds, flags);
+        } finally {
+            stops.close();
+            stations.close();
+        }
+    }
+
+    private static Cursor query(SQLiteDatabase db, String table) {
+        return db.query(table, new String[]{
+            "_rowid_",
+            StopListContract.Stop.COLUMN_NAME_LAT,
+            StopListContract.Stop.COLUMN_NAME_LON,
+            StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE
+        }, null, null, null, null, null);
+    }
+
+    /**
+     * @return the number of points in the index
+     */
+    int size() {
+        return mLat.length;
+    }
+
+    /**
+     * @return the rowid of the given point in its table
+     */
+    long getRowId(int point) {
+        return mRowIds[point];
+    }
+
+    /**
+     * @return true if the given point is in the stations table, false if in the stops table
+     */
+    boolean isStation(int point) {
+        return (mFlags[point] & FLAG_STATION) != 0;
+    }
+
+    /**
+     * Find the k points nearest to the given location. The distance is computed the same way
+     * as in the SQL queries, i.e. over raw degrees.
+     *
+     * @param lat the latitude of the location
+     * @param lon the longitude of the location
+     * @param k the number of points to return
+     * @param includeCitybikes whether to include citybike stations or not
+     * @return the points ordered from nearest to furthest
+     */
+    int[] nearest(double lat, double lon, int k, boolean includeCitybikes) {
+        Search search = new Search(lat, lon, Math.min(k, size()), includeCitybikes ? 0 : FLAG_CITYBIKE);
+        search.visit(0, size(), 0);
+        return search.sorted();
+    }
+
+    private double coord(int point, int axis) {
+        return axis == 0 ? mLat[point] : mLon[point];
+    }
+
+    /**
+     * Arrange the range [lo, hi) so that its median splits it on the axis of this depth and
+     * recurse into both halves.
+     */
+    private void build(int lo, int hi, int depth) {
+        if (hi - lo <= 1) {
+            return;
+        }
+
+        int axis = depth % 2;
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+
+        build(lo, mid, depth + 1);
+        build(mid + 1, hi, depth + 1);
+    }
+
+    /**
+     * Reorder the range [left, right] so that the point at position n is the one that would be
+     * there if the range was sorted by the given axis, smaller ones before it and larger after.
+     */
+    private void select(int left, int right, int n, int axis) {
+        while (right > left) {
+            double pivot = coord((left + right) >>> 1, axis);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coord(i, axis) < pivot) i++;
+                while (coord(j, axis) > pivot) j--;
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+
+            if (n <= j) {
+                right = j;
+            } else if (n >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        double lat = mLat[a]; mLat[a] = mLat[b]; mLat[b] = lat;
+        double lon = mLon[a]; mLon[a] = mLon[b]; mLon[b] = lon;
+        long id = mRowIds[a]; mRowIds[a] = mRowIds[b]; mRowIds[b] = id;
+        int flags = mFlags[a]; mFlags[a] = mFlags[b]; mFlags[b] = flags;
+    }
+
+    /**
+     * The state of a single k-nearest search. The best candidates are kept in a bounded
+     * max-heap so that the furthest one can be replaced cheaply.
+     */
+    private class Search {
+        private final double mQueryLat;
+        private final double mQueryLon;
+        private final int mExcluded;
+        private final double[] mDist;
+        private final int[] mPoints;
+        private int mCount = 0;
+
+        Search(double lat, double lon, int k, int excludedFlags) {
+            mQueryLat = lat;
+            mQueryLon = lon;
+            mExcluded = excludedFlags;
+            mDist = new double[k];
+            mPoints = new int[k];
+        }
+
+        void visit(int lo, int hi, int depth) {
+            if (lo >= hi || mPoints.length == 0) {
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            if ((mFlags[mid] & mExcluded) == 0) {
+                double dLat = mQueryLat - mLat[mid];
+                double dLon = mQueryLon - mLon[mid];
+                offer(mid, dLat * dLat + dLon * dLon);
+            }
+
+            int axis = depth % 2;
+            double diff = (axis == 0 ? mQueryLat : mQueryLon) - coord(mid, axis);
+
+            // Search the side of the split the query is on first
+            if (diff < 0) {
+                visit(lo, mid, depth + 1);
+            } else {
+                visit(mid + 1, hi, depth + 1);
+            }
+
+            // ...and the other side only if it can contain closer points
+            if (mCount < mPoints.length || diff * diff < mDist[0]) {
+                if (diff < 0) {
+                    visit(mid + 1, hi, depth + 1);
+                } else {
+                    visit(lo, mid, depth + 1);
+                }
+            }
+        }
+
+        private void offer(int point, double dist) {
+            if (mCount < mPoints.length) {
+                // Sift up
+                int i = mCount++;
+                while (i > 0 && mDist[(i - 1) / 2] < dist) {
+                    int parent = (i - 1) / 2;
+                    mDist[i] = mDist[parent];
+                    mPoints[i] = mPoints[parent];
+                    i = parent;
+                }
+                mDist[i] = dist;
+                mPoints[i] = point;
+            } else if (dist < mDist[0]) {
+                siftDown(point, dist, mCount);
+            }
+        }
+
+        /**
+         * Replace the root of the heap [0, size) and restore the heap order.
+         */
+        private void siftDown(int point, double dist, int size) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && mDist[child + 1] > mDist[child]) {
+                    child++;
+                }
+                if (mDist[child] <= dist) {
+                    break;
+                }
+                mDist[i] = mDist[child];
+                mPoints[i] = mPoints[child];
+                i = child;
+            }
+            mDist[i] = dist;
+            mPoints[i] = point;
+        }
+
+        /**
+         * Empty the heap from the furthest point to the nearest.
+         */
+        int[] sorted() {
+            int[] result = new int[mCount];
+            for (int size = mCount; size > 0; size--) {
+                result[size - 1] = mPoints[0];
+                siftDown(mPoints[size - 1], mDist[size - 1], size - 1);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import io.github.sjakthol.stoptimes.db.SpatialGrid;
+import io.github.sjakthol.stoptimes.digitransit.models.Stop;
+import io.github.sjakthol.stoptimes.utils.Logger;
+import io.github.sjakthol.stoptimes.utils.Metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.github.sjakthol.stoptimes.db.StopListContract.Stop.*;
+
+/**
+ * A bulk sync engine that updates the stop list database one stop at a time. This includes:
+ * - add any new stops to the database
+ * - update details for any existing stops whose content has changed
+ * - remove removed stops from the database (deleteRemoved())
+ *
+ * All SQL statements are compiled once per table and the columns are bound by index. Each row
+ * stores a fingerprint of its content; stops whose fingerprint did not change since the last
+ * update are not written at all. The fingerprints of all stops are combined into a dataset
+ * version that is recorded with recordDatasetVersion().
+ *
+ * The caller is responsible for wrapping the writes into a transaction and calling close() once
+ * done.
+ */
+class StopWriter implements UpdateDatabaseTask.StopSink {
+    private static final String TAG = StopWriter.class.getSimpleName();
+
+    /**
+     * The columns written by this class in the order they are bound to the statements.
+     */
+    private static final String[] COLUMNS = {
+        COLUMN_NAME_GTFS_ID,
+        COLUMN_NAME_NAME,
+        COLUMN_NAME_CODE,
+        COLUMN_NAME_LAT,
+        COLUMN_NAME_LON,
+        COLUMN_NAME_VEHICLE_TYPE,
+        COLUMN_NAME_PLATFORM_CODE,
+        COLUMN_NAME_LOCATION_TYPE,
+        COLUMN_NAME_PARENT_STATION,
+        COLUMN_NAME_FINGERPRINT,
+        COLUMN_NAME_CELL_LAT,
+        COLUMN_NAME_CELL_LON,
+    };
+
+    /**
+     * The first SQLite version that supports INSERT ... ON CONFLICT DO UPDATE.
+     */
+    private static final int[] UPSERT_MIN_VERSION = {3, 24, 0};
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SQLiteDatabase mDb;
+    private final boolean mSupportsUpsert;
+    private final Map<String, Table> mTables = new HashMap<>(2);
+
+    private int mAdded = 0;
+    private int mUpdated = 0;
+    private int mUnchanged = 0;
+    private int mDeleted = 0;
+
+    /**
+     * The sum of the row fingerprints of the stops written so far. Summing makes the version
+     * independent of the order in which the API returns the stops.
+     */
+    private long mDatasetHash = 0;
+
+    private long mLoadNanos = 0;
+    private long mWriteNanos = 0;
+    private long mDeleteNanos = 0;
+
+    StopWriter(SQLiteDatabase db) {
+        mDb = db;
+
+        String version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null);
+        mSupportsUpsert = isVersionAtLeast(version, UPSERT_MIN_VERSION);
+        Logger.i(TAG, "SQLite version %s; upsert supported: %b", version, mSupportsUpsert);
+    }
+
+    /**
+     * Add or update the given stop.
+     *
+     * @param table the SQL table the stop should be added to (stations vs stops)
+     * @param stop the stop
+     */
+    @Override
+    public void write(String table, Stop stop) {
+        Table t = getTable(table);
+
+        long start = System.nanoTime();
+        long fingerprint = fingerprint(stop);
+        mDatasetHash += mix(mix(mix(FNV_OFFSET_BASIS, table), stop.getId()), fingerprint);
+
+        // Rows written before fingerprints were introduced exist with a NULL fingerprint
+        boolean exists = t.mExisting.containsKey(stop.getId());
+        Long existing = t.mExisting.remove(stop.getId());
+
+        if (existing != null && existing == fingerprint) {
+            mUnchanged += 1;
+        } else {
+            SQLiteStatement stmt = t.mUpsert;
+            stmt.clearBindings();
+            bindNullable(stmt, 1, stop.getId());
+            bindNullable(stmt, 2, stop.getName());
+            bindNullable(stmt, 3, stop.getCode());
+            stmt.bindDouble(4, stop.getLat());
+            stmt.bindDouble(5, stop.getLon());
+            stmt.bindLong(6, Stop.typeToCode(stop.getVehicleType()));
+            bindNullable(stmt, 7, stop.getPlatform());
+            bindNullable(stmt, 8, stop.getLocationType());
+            bindNullable(stmt, 9, stop.getParentStation());
+            stmt.bindLong(10, fingerprint);
+            stmt.bindLong(11, SpatialGrid.latCell(stop.getLat()));
+            stmt.bindLong(12, SpatialGrid.lonCell(stop.getLon()));
+            stmt.executeInsert();
+
+            if (!exists) {
+                mAdded += 1;
+            } else {
+                mUpdated += 1;
+            }
+        }
+
+        mWriteNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Delete stops and stations that exist in the database but were not written by this writer.
+     */
+    void deleteRemoved() {
+        long start = System.nanoTime();
+
+        // Make sure both tables are loaded so that stale rows of a table that received no
+        // stops at all are removed as well.
+        getTable(STOPS_TABLE_NAME);
+        getTable(STATIONS_TABLE_NAME);
+
+        for (Table t : mTables.values()) {
+            for (String id : t.mExisting.keySet()) {
+                t.mDelete.bindString(1, id);
+                mDeleted += t.mDelete.executeUpdateDelete();
+            }
+
+            t.mExisting.clear();
+        }
+
+        mDeleteNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Record the version of the dataset written by this writer. Nothing is written if the
+     * version matches the one recorded by the previous update.
+     *
+     * @return true if the dataset changed since the last update, false otherwise
+     */
+    boolean recordDatasetVersion() {
+        String version = String.format("%016x", mDatasetHash);
+        String previous = getDatasetVersion(mDb);
+        if (version.equals(previous)) {
+            Logger.i(TAG, "Dataset version %s unchanged", version);
+            return false;
+        }
+
+        SQLiteStatement stmt = mDb.compileStatement(
+            "INSERT OR REPLACE INTO " + METADATA_TABLE_NAME +
+            " (" + COLUMN_NAME_KEY + ", " + COLUMN_NAME_VALUE + ") VALUES (?, ?)");
+        try {
+            stmt.bindString(1, METADATA_KEY_DATASET_VERSION);
+            stmt.bindString(2, version);
+            stmt.executeInsert();
+        } finally {
+            stmt.close();
+        }
+
+        Logger.i(TAG, "Dataset version changed from %s to %s", previous, version);
+        return true;
+    }
+
+    /**
+     * Get the version of the stop dataset currently in the database.
+     *
+     * @param db the database
+     * @return the dataset version or null if the database has never been updated
+     */
+    static String getDatasetVersion(SQLiteDatabase db) {
+        Cursor cursor = db.query(METADATA_TABLE_NAME, new String[]{COLUMN_NAME_VALUE},
+            COLUMN_NAME_KEY + " = ?", new String[]{METADATA_KEY_DATASET_VERSION}, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Release the compiled statements.
+     */
+    void close() {
+        for (Table t : mTables.values()) {
+            t.mUpsert.close();
+            t.mDelete.close();
+        }
+
+        mTables.clear();
+    }
+
+    void logStats() {
+        Logger.i(TAG, "Stats: added=%d, updated=%d, unchanged=%d, deleted=%d",
+            mAdded, mUpdated, mUnchanged, mDeleted);
+        Logger.i(TAG, "Timing: load=%dms, write=%dms, delete=%dms",
+            mLoadNanos / 1000000, mWriteNanos / 1000000, mDeleteNanos / 1000000);
+    }
+
+    /**
+     * Record the stats and timings of the sync phases in Metrics.
+     */
+    void recordMetrics() {
+        Metrics.count("db.sync.added", mAdded);
+        Metrics.count("db.sync.updated", mUpdated);
+        Metrics.count("db.sync.unchanged", mUnchanged);
+        Metrics.count("db.sync.deleted", mDeleted);
+        Metrics.recordDuration("db.sync.load", mLoadNanos);
+        Metrics.recordDuration("db.sync.write", mWriteNanos);
+        Metrics.recordDuration("db.sync.delete", mDeleteNanos);
+    }
+
+    /**
+     * Get the compiled statements and existing content for the given table. These are created
+     * when the table is first used.
+     *
+     * @param table the table name
+     * @return the table state
+     */
+    private Table getTable(String table) {
+        Table t = mTables.get(table);
+        if (t == null) {
+            long start = System.nanoTime();
+            t = new Table(table);
+            mTables.put(table, t);
+            mLoadNanos += System.nanoTime() - start;
+        }
+
+        return t;
+    }
+
+    /**
+     * Compute a 64-bit FNV-1a fingerprint over the content of a stop.
+     *
+     * @param stop the stop
+     * @return the fingerprint
+     */
+    static long fingerprint(Stop stop) {
+        long h = FNV_OFFSET_BASIS;
+        h = mix(h, stop.getName());
+        h = mix(h, stop.getCode());
+        h = mix(h, Double.doubleToLongBits(stop.getLat()));
+        h = mix(h, Double.doubleToLongBits(stop.getLon()));
+        h = mix(h, Stop.typeToCode(stop.getVehicleType()));
+        h = mix(h, stop.getPlatform());
+        h = mix(h, stop.getLocationType());
+        h = mix(h, stop.getParentStation());
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h ^= (value >>> (i * 8)) & 0xff;
+            h *= FNV_PRIME;
+        }
+
+        return h;
+    }
+
+    private static long mix(long h, String value) {
+        if (value == null) {
+            // Distinguish null from an empty string
+            return mix(h, -1L);
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            h ^= c & 0xff;
+            h *= FNV_PRIME;
+            h ^= c >>> 8;
+            h *= FNV_PRIME;
+        }
+
+        // Field separator
+        return mix(h, (long) value.length());
+    }
+
+    private static void bindNullable(SQLiteStatement stmt, int index, String value) {
+        if (value == null) {
+            stmt.bindNull(index);
+        } else {
+            stmt.bindString(index, value);
+        }
+    }
+
+    /**
+     * Check if the given SQLite version string is at least the given version.
+     *
+     * @param version a version string such as 3.22.0
+     * @param min the minimum version as {major, minor, patch}
+     * @return true if version >= min
+     */
+    static boolean isVersionAtLeast(String version, int[] min) {
+        String[] parts = version.split("\\.");
+        for (int i = 0; i < min.length; i++) {
+            int part;
+            try {
+                part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+
+            if (part != min[i]) {
+                return part > min[i];
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * The compiled statements and the stored fingerprints of the existing rows of a single table.
+     */
+    private class Table {
+        private final SQLiteStatement mUpsert;
+        private final SQLiteStatement mDelete;
+        private final Map<String, Long> mExisting;
+
+        Table(String table) {
+            mUpsert = mDb.compileStatement(buildUpsertSql(table));
+            mDelete = mDb.compileStatement(
+                "DELETE FROM " + table + " WHERE " + COLUMN_NAME_GTFS_ID + " = ?");
+            mExisting = loadFingerprints(table);
+        }
+
+        private String buildUpsertSql(String table) {
+            StringBuilder sql = new StringBuilder(mSupportsUpsert ? "INSERT INTO " : "INSERT OR REPLACE INTO ");
+            sql.append(table).append(" (");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                sql.append(i == 0 ? "" : ", ").append(COLUMNS[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < COLUMNS.length; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+
+            if (mSupportsUpsert) {
+                sql.append(" ON CONFLICT(").append(COLUMN_NAME_GTFS_ID).append(") DO UPDATE SET ");
+                for (int i = 1; i < COLUMNS.length; i++) {
+                    sql.append(i == 1 ? "" : ", ").append(COLUMNS[i]).append(" = excluded.").append(COLUMNS[i]);
+                }
+            }
+
+            return sql.toString();
+        }
+
+        private Map<String, Long> loadFingerprints(String table) {
+            Cursor cursor = mDb.query(table, new String[]{COLUMN_NAME_GTFS_ID, COLUMN_NAME_FINGERPRINT},
+                null, null, null, null, null);
+            Map<String, Long> result = new HashMap<>(cursor.getCount());
+            try {
+                while (cursor.moveToNext()) {
+                    result.put(cursor.getString(0), cursor.isNull(1) ? null : cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+
+            return result;
+        }
+    }
+}
@@ -1,31 +1,30 @@
 package io.github.sjakthol.stoptimes.db.task;
 
 import android.annotation.SuppressLint;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
-import android.location.Location;
-import com.android.volley.NoConnectionError;
-import com.android.volley.toolbox.RequestFuture;
+import android.os.AsyncTask;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import io.github.sjakthol.stoptimes.db.StopListContract;
 import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
+import io.github.sjakthol.stoptimes.db.StopSearchIndex;
 import io.github.sjakthol.stoptimes.digitransit.DigitransitApi;
 import io.github.sjakthol.stoptimes.digitransit.models.CityBikeStation;
 import io.github.sjakthol.stoptimes.digitransit.models.Stop;
+import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
 import io.github.sjakthol.stoptimes.utils.Logger;
+import io.github.sjakthol.stoptimes.utils.Metrics;
 import io.github.sjakthol.stoptimes.utils.NetworkRequiredException;
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
 import java.util.Vector;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-
-import static io.github.sjakthol.stoptimes.db.StopListContract.Stop.COLUMN_NAME_GTFS_ID;
 
 /**
  * A task that updates the contents of the stop list database.
@@ -33,15 +32,6 @@ import static io.github.sjakthol.stoptimes.db.StopListContract.Stop.COLUMN_NAME_
 @SuppressLint("StaticFieldLeak")
 public class UpdateDatabaseTask extends DatabaseTask<Void, Void> {
     private static final String TAG = UpdateDatabaseTask.class.getSimpleName();
-    private static final String TEMP_TABLE_NAME = "NEW_STOPS";
-    private static final String CREATE_TEMP_TABLE =
-        "CREATE TEMPORARY TABLE IF NOT EXISTS " + TEMP_TABLE_NAME + "(" +
-            COLUMN_NAME_GTFS_ID + " TEXT PRIMARY KEY" +
-        ");";
-    private static final String DELETE_REMOVED_COND =
-        COLUMN_NAME_GTFS_ID + " NOT IN (" +
-            "SELECT " + COLUMN_NAME_GTFS_ID + " FROM " + TEMP_TABLE_NAME + "" +
-        ")";
 
     private final Context mContext;
 
@@ -57,184 +47,202 @@ public class UpdateDatabaseTask extends DatabaseTask<Void, Void> {
         mContext = context;
     }
 
+    /**
+     * Update the database. Use this method to execute the task.
+     */
+    public AsyncTask<Void, Void, AsyncTaskResult<Void>> execute() {
+        return submit();
+    }
+
+    @Override
+    protected boolean isWrite() {
+        return true;
+    }
+
     @Override
     public Void runTask(SQLiteDatabase db, Void... unused) {
-        // Fetch stops
-        Map<String, Vector<Stop>> data = this._fetchStops();
-        Vector<Stop> stops = data.get("stops");
-        Vector<Stop> stations = data.get("stations");
+        // Everything is written in a single transaction while the response is being read. If
+        // anything fails half way, the old data is kept intact.
+        db.beginTransaction();
+
+        long start = System.nanoTime();
+        long commitStart = 0;
+
+        StopWriter writer = null;
+        boolean changed;
+        try {
+            writer = new StopWriter(db);
+
+            long fetchStart = Metrics.beginSection("db.sync.fetch");
+            try {
+                this.fetchStops(writer);
+            } finally {
+                Metrics.endSection("db.sync.fetch", fetchStart);
+            }
+
+            writer.deleteRemoved();
+            changed = writer.recordDatasetVersion();
+            if (changed) {
+                long indexStart = Metrics.beginSection("db.sync.index");
+                try {
+                    StopSearchIndex.rebuild(db);
+                } finally {
+                    Metrics.endSection("db.sync.index", indexStart);
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            if (writer != null) {
+                writer.close();
+                writer.logStats();
+                writer.recordMetrics();
+            }
 
-        // First, add stations to the database
-        this.updateDatabase(db, stations, StopListContract.Stop.STATIONS_TABLE_NAME);
+            commitStart = Metrics.beginSection("db.sync.commit");
+            db.endTransaction();
+            Metrics.endSection("db.sync.commit", commitStart);
+        }
 
-        // Then, add the stops
-        this.updateDatabase(db, stops, StopListContract.Stop.STOPS_TABLE_NAME);
+        long end = System.nanoTime();
+        Metrics.recordDuration("db.sync.total", end - start);
+        Logger.i(TAG, "Timing: total=%dms, commit=%dms", (end - start) / 1000000, (end - commitStart) / 1000000);
+
+        if (changed) {
+            // Free the stale index right away instead of waiting for the next lookup
+            StopLocationIndex.invalidate();
+        }
 
         return null;
     }
 
     /**
-     * Retrieves the stop list from the Digitransit API
+     * Streams the stop list from the Digitransit API into the given writer.
      *
-     * @return an array with stop object
+     * @param writer the writer that stores the stops into the database
      */
-    public Map<String, Vector<Stop>> _fetchStops() {
+    void fetchStops(StopWriter writer) {
         Logger.i(TAG, "Fetching stops");
-        try {
-            RequestFuture<JSONObject> req = DigitransitApi.getAllStops(mContext);
-            JSONObject response = req.get(DigitransitApi.WAIT_TIMEOUT, TimeUnit.SECONDS);
-            JSONObject data = response.getJSONObject("data");
-
-            // Parse stops and stations from the response
-            Vector<Stop> stops = parseStopList(data.getJSONArray("stops"));
-            Vector<Stop> stations = parseStopList(data.getJSONArray("stations"));
-            Vector<Stop> cityBikeStations = parseCitybikeStationList(data.getJSONArray("bikeRentalStations"));
-
-            Logger.i(TAG, "Found %d citybike stations", cityBikeStations.size());
-
-            // Append the city bike stations to the list of stops
-            stops.addAll(cityBikeStations);
-            Logger.i(TAG, "Found %d stops, %d stations", stops.size(), stations.size());
-
-            Map<String, Vector<Stop>> result = new HashMap<>(2);
-            result.put("stops", stops);
-            result.put("stations", stations);
-            return result;
 
-        } catch (InterruptedException e) {
-            Logger.e(TAG, "Unexpected InterruptedException", e);
-            throw new UpdateFailedException(e);
-        } catch (ExecutionException e) {
-            Logger.e(TAG, String.format("Request failed: %s", e.getMessage()), e);
+        InputStream stream = null;
+        try {
+            stream = DigitransitApi.openAllStopsStream();
+            JsonReader reader = new JsonReader(new InputStreamReader(stream, "UTF-8"));
+            readStopList(reader, writer);
 
+        } catch (UnknownHostException | ConnectException e) {
             // Network connection is missing. Notify the caller that network connection is required.
-            if (e.getCause() instanceof NoConnectionError) {
-                Logger.i(TAG, "Request failed due to networking issues");
-                throw new UpdateFailedException(new NetworkRequiredException());
-            }
-
-            // Something else went wrong.
+            Logger.i(TAG, "Request failed due to networking issues", e);
+            throw new UpdateFailedException(new NetworkRequiredException());
+        } catch (IOException e) {
+            Logger.e(TAG, String.format("Request failed: %s", e.getMessage()), e);
             throw new UpdateFailedException(e);
-
-        } catch (TimeoutException e) {
-            Logger.e(TAG, "Request timed out", e);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader throws these if the response has unexpected structure.
+            Logger.e(TAG, "Failed to parse response", e);
             throw new UpdateFailedException(e);
         } catch (JSONException e) {
-            Logger.e(TAG, "Failed to parse response", e);
+            Logger.e(TAG, "Failed to build request", e);
             throw new UpdateFailedException(e);
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    Logger.w(TAG, "Failed to close response stream", e);
+                }
+            }
         }
     }
 
     /**
-     * Parses the response received from Digitransit API
+     * Reads the stop list response token by token and passes each stop, station and citybike
+     * station to the sink as soon as it has been parsed.
      *
-     * @param stops a JSON Array of Stop objects
-     * @return a Vector of parsed Stop objects
-     * @throws JSONException if JSON cannot be parsed
+     * @param reader a reader for the API response
+     * @param writer the sink to pass the stops to
+     * @throws IOException if the response cannot be read
      */
-    public static Vector<Stop> parseStopList(JSONArray stops) throws JSONException {
-        int numstops = stops.length();
-        Vector<Stop> result = new Vector<>(numstops);
-        for (int i = 0; i < stops.length(); i++) {
-            result.addElement(Stop.fromJson(stops.getJSONObject(i)));
+    static void readStopList(JsonReader reader, StopSink writer) throws IOException {
+        boolean foundData = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!reader.nextName().equals("data") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+                continue;
+            }
+
+            foundData = true;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                    reader.skipValue();
+                    continue;
+                }
+
+                reader.beginArray();
+                switch (name) {
+                    case "stops":
+                        while (reader.hasNext()) {
+                            writer.write(StopListContract.Stop.STOPS_TABLE_NAME, Stop.fromJsonReader(reader));
+                        }
+                        break;
+                    case "stations":
+                        while (reader.hasNext()) {
+                            writer.write(StopListContract.Stop.STATIONS_TABLE_NAME, Stop.fromJsonReader(reader));
+                        }
+                        break;
+                    case "bikeRentalStations":
+                        // City bike stations are stored alongside the stops
+                        while (reader.hasNext()) {
+                            writer.write(StopListContract.Stop.STOPS_TABLE_NAME, CityBikeStation.fromJsonReader(reader));
+                        }
+                        break;
+                    default:
+                        while (reader.hasNext()) {
+                            reader.skipValue();
+                        }
+                }
+                reader.endArray();
+            }
+            reader.endObject();
         }
+        reader.endObject();
 
-        return result;
+        if (!foundData) {
+            throw new IOException("No data in stop list response");
+        }
     }
 
     /**
-     * Parses the citybike response received from Digitransit API
+     * Parses the response received from Digitransit API
      *
-     * @param stops a JSON Array of CitybikeStation objects
+     * @param stops a JSON Array of Stop objects
      * @return a Vector of parsed Stop objects
      * @throws JSONException if JSON cannot be parsed
      */
-    private static Vector<Stop> parseCitybikeStationList(JSONArray stops) throws JSONException {
+    public static Vector<Stop> parseStopList(JSONArray stops) throws JSONException {
         int numstops = stops.length();
         Vector<Stop> result = new Vector<>(numstops);
         for (int i = 0; i < stops.length(); i++) {
-            result.addElement(CityBikeStation.fromJson(stops.getJSONObject(i)));
+            result.addElement(Stop.fromJson(stops.getJSONObject(i)));
         }
 
         return result;
     }
 
     /**
-     * Updates the stop list database. This includes:
-     * - add any new stops to the database
-     * - update details for any existing stops in the database
-     * - remove removed stops from the database
-     *
-     * @param db the database to update
-     * @param stops the list of stops
-     * @param table the SQL table these should be added to (stations vs stops)
+     * An interface for receiving the stops read from the stop list response.
      */
-    private void updateDatabase(SQLiteDatabase db, Vector<Stop> stops, String table) {
-        db.beginTransaction();
-
-        int deleted = 0;
-        int updated = 0;
-        int added = 0;
-        int errors = 0;
-
-        try {
-            // Create temporary table for comparing the IDs of the two datasets.
-            db.execSQL(CREATE_TEMP_TABLE);
-
-            for (Stop stop : stops) {
-                Location loc = stop.getLocation();
-
-                ContentValues data = new ContentValues();
-                data.put(COLUMN_NAME_GTFS_ID, stop.getId());
-                data.put(StopListContract.Stop.COLUMN_NAME_NAME, stop.getName());
-                data.put(StopListContract.Stop.COLUMN_NAME_CODE, stop.getCode());
-                data.put(StopListContract.Stop.COLUMN_NAME_LAT, loc.getLatitude());
-                data.put(StopListContract.Stop.COLUMN_NAME_LON, loc.getLongitude());
-                data.put(StopListContract.Stop.COLUMN_NAME_VEHICLE_TYPE, Stop.typeToCode(stop.getVehicleType()));
-                data.put(StopListContract.Stop.COLUMN_NAME_PLATFORM_CODE, stop.getPlatform());
-                data.put(StopListContract.Stop.COLUMN_NAME_LOCATION_TYPE, stop.getLocationType());
-                data.put(StopListContract.Stop.COLUMN_NAME_PARENT_STATION, stop.getParentStation());
-
-                // Try updating an existing entry first
-                int changed = db.update(
-                    table,
-                    data,
-                    COLUMN_NAME_GTFS_ID + " = ?",
-                    new String[]{stop.getId()}
-                );
-
-                updated += changed;
-
-                if (changed == 0) {
-                    // The stop was not in the db; insert it.
-                    if (db.insert(table, null, data) == -1) {
-                        Logger.w(TAG, "Failed to insert stop %s", stop.getId());
-                        errors += 1;
-                    } else {
-                        added += 1;
-                    }
-                }
-
-                // Also insert the ID into the temp table for later
-                ContentValues id = new ContentValues();
-                id.put(COLUMN_NAME_GTFS_ID, stop.getId());
-
-                if (db.insert(TEMP_TABLE_NAME, null, id) == -1) {
-                    Logger.w(TAG, "Failed to insert %s into temporary table for removal comparison", stop.getId());
-                    errors += 1;
-                }
-            }
-
-            // Delete removed stops
-            deleted = db.delete(table, DELETE_REMOVED_COND, null);
-
-            db.execSQL("DROP TABLE " + TEMP_TABLE_NAME);
-
-            // And commit the transaction
-            db.setTransactionSuccessful();
-        } finally {
-            Logger.i(TAG, "Stats: added=%d, updated=%d, deleted=%d, errors=%d", added, updated, deleted, errors);
-            db.endTransaction();
-        }
+    interface StopSink {
+        /**
+         * Called for each stop, station and citybike station in the response.
+         *
+         * @param table the SQL table the stop belongs to (stations vs stops)
+         * @param stop the stop
+         */
+        void write(String table, Stop stop);
     }
 }
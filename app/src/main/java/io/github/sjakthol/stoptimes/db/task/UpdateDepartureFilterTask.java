@@ -38,7 +38,12 @@ public class UpdateDepartureFilterTask extends DatabaseTask<Bundle, Void> {
         Bundle bundle = new Bundle();
         bundle.putString(BUNDLE_STOP_ID, stopId);
         bundle.putSerializable(BUNDLE_FILTERS, filters);
-        return this.execute(bundle);
+        return submit(bundle);
+    }
+
+    @Override
+    protected boolean isWrite() {
+        return true;
     }
 
     @SuppressWarnings("unchecked")
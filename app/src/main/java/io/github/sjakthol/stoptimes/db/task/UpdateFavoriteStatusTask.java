@@ -37,7 +37,12 @@ public class UpdateFavoriteStatusTask extends DatabaseTask<Bundle, Void> {
         Bundle bundle = new Bundle();
         bundle.putString(BUNDLE_STOP_ID, stopId);
         bundle.putBoolean(BUNDLE_IS_FAVORITE, isFavorite);
-        return this.execute(bundle);
+        return submit(bundle);
+    }
+
+    @Override
+    protected boolean isWrite() {
+        return true;
     }
 
     @Override
@@ -0,0 +1,125 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import android.support.annotation.Nullable;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * A small in-memory cache for departure lists. The cache holds the most recently used
+ * responses for the lifetime of the process so that a recently viewed stop can be shown
+ * immediately while a fresh list is being loaded.
+ *
+ * Entries expire after TTL_MILLIS and the least recently used entries are evicted once the
+ * cache holds MAX_ENTRIES lists.
+ */
+public class DepartureCache {
+    static final int MAX_ENTRIES = 16;
+    static final long TTL_MILLIS = 2 * 60 * 1000;
+
+    private static final DepartureCache sInstance = new DepartureCache();
+
+    private final LinkedHashMap<String, Entry> mEntries =
+        new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    DepartureCache() {}
+
+    /**
+     * Get the singleton instance of the cache.
+     *
+     * @return the cache
+     */
+    public static DepartureCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Store the departures of a stop.
+     *
+     * @param stopId GTFS ID of the stop
+     * @param locationType the type of the stop
+     * @param numDepartures the number of departures that was requested
+     * @param includeTerminus whether arrivals to terminus were included
+     * @param departures the departures
+     */
+    public void put(String stopId, String locationType, int numDepartures,
+                    boolean includeTerminus, Vector<Departure> departures)
+    {
+        put(stopId, locationType, numDepartures, includeTerminus, departures, System.currentTimeMillis());
+    }
+
+    synchronized void put(String stopId, String locationType, int numDepartures,
+                          boolean includeTerminus, Vector<Departure> departures, long now)
+    {
+        mEntries.put(key(stopId, locationType, numDepartures, includeTerminus),
+            new Entry(now, new Vector<>(departures)));
+    }
+
+    /**
+     * Get the cached departures of a stop. Departures that have already left are dropped so
+     * that the list matches the current time.
+     *
+     * @param stopId GTFS ID of the stop
+     * @param locationType the type of the stop
+     * @param numDepartures the number of departures requested
+     * @param includeTerminus whether arrivals to terminus are included
+     * @return the departures that have not left yet or null if nothing valid is cached
+     */
+    @Nullable
+    public Vector<Departure> get(String stopId, String locationType, int numDepartures, boolean includeTerminus) {
+        return get(stopId, locationType, numDepartures, includeTerminus, System.currentTimeMillis());
+    }
+
+    @Nullable
+    synchronized Vector<Departure> get(String stopId, String locationType, int numDepartures,
+                                       boolean includeTerminus, long now)
+    {
+        String key = key(stopId, locationType, numDepartures, includeTerminus);
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (now - entry.mTimestamp > TTL_MILLIS) {
+            mEntries.remove(key);
+            return null;
+        }
+
+        Vector<Departure> res = new Vector<>(entry.mDepartures.size());
+        for (Departure departure : entry.mDepartures) {
+            if (departure.getRealtimeDeparture() * 1000 >= now) {
+                res.add(departure);
+            }
+        }
+
+        return res.isEmpty() ? null : res;
+    }
+
+    /**
+     * Remove all cached departures.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    private static String key(String stopId, String locationType, int numDepartures, boolean includeTerminus) {
+        return stopId + "|" + locationType + "|" + numDepartures + "|" + includeTerminus;
+    }
+
+    private static class Entry {
+        private final long mTimestamp;
+        private final Vector<Departure> mDepartures;
+
+        Entry(long timestamp, Vector<Departure> departures) {
+            mTimestamp = timestamp;
+            mDepartures = departures;
+        }
+    }
+}
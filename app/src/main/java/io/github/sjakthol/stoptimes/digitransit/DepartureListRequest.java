@@ -0,0 +1,296 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.JsonRequest;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.digitransit.models.DepartureBuffer;
+import io.github.sjakthol.stoptimes.utils.Metrics;
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Vector;
+
+/**
+ * A request for the departures of a single stop or station. The response is parsed with a
+ * pull parser straight from the raw bytes into departures on the network thread, without
+ * building a JSONObject tree first. Arrivals to terminus are dropped while parsing.
+ *
+ * If the request is a differential poll, the parsed departures are merged into the known
+ * departures on the network thread as well.
+ */
+class DepartureListRequest extends JsonRequest<Vector<Departure>> {
+    /**
+     * A parse buffer for each network thread.
+     */
+    private static final ThreadLocal<DepartureBuffer> sBuffers = new ThreadLocal<DepartureBuffer>() {
+        @Override
+        protected DepartureBuffer initialValue() {
+            return new DepartureBuffer();
+        }
+    };
+
+    private final String mQuery;
+    private final boolean mIncludeTerminus;
+    private final int mNumDepartures;
+    private final Vector<Departure> mKnown;
+    private final long mWindowEnd;
+
+    /**
+     * Create a new request.
+     *
+     * @param url the URL of the GraphQL endpoint
+     * @param body the GraphQL request body
+     * @param includeTerminus whether to include arrivals to terminus in the results
+     * @param listener listener for the departures
+     * @param errorListener listener for errors
+     */
+    DepartureListRequest(String url, String body, boolean includeTerminus,
+                         Response.Listener<Vector<Departure>> listener, Response.ErrorListener errorListener)
+    {
+        this(url, "departures", body, includeTerminus, Integer.MAX_VALUE, null, 0, listener, errorListener);
+    }
+
+    /**
+     * Create a new request.
+     *
+     * @param url the URL of the GraphQL endpoint
+     * @param query the name of the query in metrics
+     * @param body the GraphQL request body
+     * @param includeTerminus whether to include arrivals to terminus in the results
+     * @param numDepartures the maximum number of departures after merging
+     * @param known the known departures to merge the response into or null if the request
+     *              fetches all departures
+     * @param windowEnd the end of the window that a differential poll fetches in full in
+     *                  seconds since the epoch
+     * @param listener listener for the departures
+     * @param errorListener listener for errors
+     */
+    DepartureListRequest(String url, String query, String body, boolean includeTerminus, int numDepartures,
+                         @Nullable Vector<Departure> known, long windowEnd,
+                         Response.Listener<Vector<Departure>> listener, Response.ErrorListener errorListener)
+    {
+        super(Method.POST, url, body, listener, errorListener);
+        mQuery = query;
+        mIncludeTerminus = includeTerminus;
+        mNumDepartures = numDepartures;
+        mKnown = known;
+        mWindowEnd = windowEnd;
+    }
+
+    @Override
+    protected Response<Vector<Departure>> parseNetworkResponse(NetworkResponse response) {
+        DigitransitApi.recordResponse(mQuery, response);
+
+        long start = Metrics.beginSection("parse." + mQuery);
+        try {
+            Reader reader = new InputStreamReader(
+                new ByteArrayInputStream(response.data),
+                HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
+
+            Vector<Departure> departures = parse(reader, mIncludeTerminus);
+            if (mKnown != null) {
+                departures = DepartureMerger.merge(mKnown, departures, mWindowEnd, mNumDepartures,
+                    System.currentTimeMillis() / 1000);
+            }
+
+            return Response.success(departures, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            // Report malformed responses with a JSONException like JsonObjectRequest does. The
+            // response is kept so that GraphQL errors in it can be inspected.
+            JSONException cause = new JSONException(e.getMessage());
+            cause.initCause(e);
+            ParseError error = new ParseError(response);
+            error.initCause(cause);
+            return Response.error(error);
+        } finally {
+            Metrics.endSection("parse." + mQuery, start);
+        }
+    }
+
+    @Override
+    public void deliverError(VolleyError error) {
+        Metrics.count("http." + mQuery + ".errors");
+        super.deliverError(error);
+    }
+
+    /**
+     * Parse a departure list response.
+     *
+     * @param in a reader for the response
+     * @param includeTerminus whether to include arrivals to terminus in the results
+     * @return the departures
+     * @throws IOException if the response cannot be read or it does not contain departures
+     */
+    static Vector<Departure> parse(Reader in, boolean includeTerminus) throws IOException {
+        DepartureBuffer buffer = sBuffers.get();
+        buffer.clear();
+
+        JsonReader reader = new JsonReader(in);
+        try {
+            boolean found = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("data") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    found = readData(reader, includeTerminus, buffer);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!found) {
+                throw new IOException("No stop or station in data");
+            }
+
+            return buffer.toDepartures(includeTerminus);
+        } finally {
+            reader.close();
+            buffer.clear();
+        }
+    }
+
+    private static boolean readData(JsonReader reader, boolean includeTerminus, DepartureBuffer buffer)
+        throws IOException
+    {
+        boolean found = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ((name.equals("stop") || name.equals("station")) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readStoptimes(reader, includeTerminus, buffer);
+                found = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return found;
+    }
+
+    private static void readStoptimes(JsonReader reader, boolean includeTerminus, DepartureBuffer buffer)
+        throws IOException
+    {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            // Differential polls have several aliased stoptime lists; read all of them
+            reader.nextName();
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readStoptime(reader, includeTerminus, buffer);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readStoptime(JsonReader reader, boolean includeTerminus, DepartureBuffer buffer)
+        throws IOException
+    {
+        boolean realtime = false;
+        boolean terminus = false;
+        long serviceDay = 0;
+        long scheduled = 0;
+        long realtimeDeparture = 0;
+        String platform = null;
+        String tripId = null;
+        String route = null;
+        String routeType = "";
+        String headsign = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+                continue;
+            }
+
+            switch (name) {
+                case "realtime":
+                    realtime = reader.nextBoolean();
+                    break;
+                case "pickupType":
+                    terminus = reader.nextString().equals("NONE");
+                    break;
+                case "serviceDay":
+                    serviceDay = reader.nextLong();
+                    break;
+                case "scheduledDeparture":
+                    scheduled = reader.nextLong();
+                    break;
+                case "realtimeDeparture":
+                    realtimeDeparture = reader.nextLong();
+                    break;
+                case "stop":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (reader.nextName().equals("platformCode") && reader.peek() != JsonToken.NULL) {
+                            platform = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "trip":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.skipValue();
+                        } else if (field.equals("gtfsId")) {
+                            tripId = reader.nextString();
+                        } else if (field.equals("tripHeadsign")) {
+                            headsign = reader.nextString();
+                        } else if (field.equals("route")) {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                String routeField = reader.nextName();
+                                if (reader.peek() == JsonToken.NULL) {
+                                    reader.skipValue();
+                                } else if (routeField.equals("shortName")) {
+                                    route = reader.nextString();
+                                } else if (routeField.equals("type")) {
+                                    routeType = reader.nextString();
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (terminus && !includeTerminus) {
+            return;
+        }
+
+        buffer.add(route, routeType, headsign == null ? "" : headsign, platform, tripId, serviceDay, scheduled, realtimeDeparture,
+            realtime, terminus);
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Merges the result of a differential departure poll into the previously known departures.
+ *
+ * A differential poll fetches every departure within a short window from now, whose realtime
+ * estimates may still change, and the departures after the last known one. Departures that
+ * have already left are dropped and known departures scheduled inside the window that the
+ * server no longer returns are assumed to be gone. Other known departures are kept as they
+ * are, including ones whose estimate has moved past the end of the window.
+ */
+final class DepartureMerger {
+    private static final Comparator<Departure> BY_REALTIME_DEPARTURE = new Comparator<Departure>() {
+        @Override
+        public int compare(Departure a, Departure b) {
+            long x = a.getRealtimeDeparture();
+            long y = b.getRealtimeDeparture();
+            return x < y ? -1 : (x == y ? 0 : 1);
+        }
+    };
+
+    private DepartureMerger() {}
+
+    /**
+     * Merge fresh departures into known ones.
+     *
+     * @param known the previously known departures
+     * @param fresh the departures returned by the differential poll
+     * @param windowEnd the end of the window that was fetched in full in seconds since the epoch
+     * @param numDepartures the maximum number of departures to return
+     * @param now the current time in seconds since the epoch
+     * @return the merged departures ordered by realtime departure
+     */
+    static Vector<Departure> merge(List<Departure> known, List<Departure> fresh, long windowEnd,
+                                   int numDepartures, long now)
+    {
+        Vector<Departure> res = new Vector<>(known.size() + fresh.size());
+        for (Departure departure : fresh) {
+            // The window and the departures after the last known one may overlap
+            if (indexOf(res, departure) < 0) {
+                res.add(departure);
+            }
+        }
+
+        for (Departure departure : known) {
+            if (departure.getRealtimeDeparture() < now || indexOf(res, departure) >= 0) {
+                continue;
+            }
+
+            // Only departures scheduled inside the window were covered by the poll
+            if (departure.getScheduledDeparture() < windowEnd) {
+                continue;
+            }
+
+            res.add(departure);
+        }
+
+        // The sort is stable so the server order is kept for departures that leave at the same time
+        Collections.sort(res, BY_REALTIME_DEPARTURE);
+        if (res.size() > numDepartures) {
+            res.setSize(numDepartures);
+        }
+
+        return res;
+    }
+
+    /**
+     * Get the number of known departures that will not be refreshed by a poll of the given
+     * window.
+     *
+     * @param known the previously known departures
+     * @param windowEnd the end of the window in seconds since the epoch
+     * @return the number of known departures scheduled after the window
+     */
+    static int countAfter(List<Departure> known, long windowEnd) {
+        int count = 0;
+        for (Departure departure : known) {
+            if (departure.getScheduledDeparture() >= windowEnd) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the latest scheduled departure time of the given departures.
+     *
+     * @param known the departures
+     * @return the latest scheduled departure in seconds since the epoch or 0 if there are none
+     */
+    static long lastScheduledDeparture(List<Departure> known) {
+        long last = 0;
+        for (Departure departure : known) {
+            last = Math.max(last, departure.getScheduledDeparture());
+        }
+
+        return last;
+    }
+
+    private static int indexOf(List<Departure> departures, Departure departure) {
+        for (int i = 0; i < departures.size(); i++) {
+            if (departures.get(i).isSameDeparture(departure)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -1,21 +1,40 @@
 package io.github.sjakthol.stoptimes.digitransit;
 
 import android.content.Context;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.android.volley.NetworkResponse;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.JsonObjectRequest;
 import com.android.volley.toolbox.RequestFuture;
 import io.github.sjakthol.stoptimes.digitransit.models.CitybikeStatus;
 import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.digitransit.models.DepartureBuffer;
+import io.github.sjakthol.stoptimes.utils.OkHttpStack;
 import io.github.sjakthol.stoptimes.utils.VolleyWrapper;
 import io.github.sjakthol.stoptimes.utils.Logger;
+import io.github.sjakthol.stoptimes.utils.Metrics;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class that allows the Digitransit API to be accessed asynchronously.
@@ -24,7 +43,12 @@ public class DigitransitApi {
     private static final String TAG = "DigitransitApi";
     private static final String API_HOST = "https://api.digitransit.fi";
     public static String API_GRAPHQL = API_HOST + "/routing/v1/routers/hsl/index/graphql";
-    private static final String QUERY_DEPARTURES_OF_STOP =
+
+    /*
+     * The queries are minified and hashed once when the class is loaded.
+     */
+    private static final QueryRegistry.PersistedQuery QUERY_DEPARTURES_OF_STOP = QueryRegistry.register(
+        "departuresOfStop",
         "query ($stop: String!, $departures: Int) {\n" +
         "  stop(id: $stop) {\n" +
         "    stoptimesWithoutPatterns(numberOfDepartures: $departures) {\n" +
@@ -35,6 +59,7 @@ public class DigitransitApi {
         "      scheduledDeparture,\n" +
         "      realtimeDeparture,\n" +
         "      trip {\n" +
+        "        gtfsId,\n" +
         "        route {\n" +
         "          shortName,\n" +
         "          type\n" +
@@ -43,9 +68,10 @@ public class DigitransitApi {
         "      }\n" +
         "    }\n" +
         "  }\n" +
-        "}";
+        "}");
 
-    private static final String QUERY_DEPARTURES_OF_STATION =
+    private static final QueryRegistry.PersistedQuery QUERY_DEPARTURES_OF_STATION = QueryRegistry.register(
+        "departuresOfStation",
         "query ($stop: String!, $departures: Int) {\n" +
         "  station(id: $stop) {\n" +
         "    stoptimesWithoutPatterns(numberOfDepartures: $departures) {\n" +
@@ -56,6 +82,7 @@ public class DigitransitApi {
         "      scheduledDeparture,\n" +
         "      realtimeDeparture,\n" +
         "      trip {\n" +
+        "        gtfsId,\n" +
         "        route {\n" +
         "          shortName,\n" +
         "          type\n" +
@@ -64,9 +91,58 @@ public class DigitransitApi {
         "      }\n" +
         "    }\n" +
         "  }\n" +
+        "}");
+
+    /**
+     * The departure fields of a stop or station in a batched departure query.
+     */
+    private static final String BATCH_DEPARTURE_FIELDS =
+        "{" +
+        "  stoptimesWithoutPatterns(numberOfDepartures: $departures) {" +
+        "    realtime, pickupType, stop { platformCode }, serviceDay, scheduledDeparture, realtimeDeparture," +
+        "    trip { gtfsId, route { shortName, type } tripHeadsign }" +
+        "  }" +
         "}";
 
-    private static final String QUERY_STOPS =
+    /**
+     * The fields of a stoptime in a departure query.
+     */
+    private static final String STOPTIME_FIELDS =
+        "{" +
+        "  realtime, pickupType, stop { platformCode }, serviceDay, scheduledDeparture, realtimeDeparture," +
+        "  trip { gtfsId, route { shortName, type } tripHeadsign }" +
+        "}";
+
+    /**
+     * Differential departure queries. The departures within the window from $start are
+     * fetched as |recent| and the departures after the last known one as |later|.
+     */
+    private static final QueryRegistry.PersistedQuery QUERY_DEPARTURE_UPDATES_OF_STOP =
+        QueryRegistry.register("departureUpdatesOfStop", buildDepartureUpdatesQuery("stop"));
+    private static final QueryRegistry.PersistedQuery QUERY_DEPARTURE_UPDATES_OF_STATION =
+        QueryRegistry.register("departureUpdatesOfStation", buildDepartureUpdatesQuery("station"));
+
+    /**
+     * The length of the window that is fetched in full by a differential poll. Realtime
+     * estimates are mostly available for departures within it.
+     */
+    static final int UPDATE_WINDOW_SECONDS = 30 * 60;
+
+    /**
+     * The error message and code the server responds with if it does not know the hash of a
+     * persisted query.
+     */
+    private static final String PERSISTED_QUERY_NOT_FOUND = "PersistedQueryNotFound";
+    private static final String PERSISTED_QUERY_NOT_FOUND_CODE = "PERSISTED_QUERY_NOT_FOUND";
+
+    /**
+     * A buffer for parsing departures. A single buffer is shared by all parses; they may run
+     * on any thread so the buffer is locked for the duration of each parse.
+     */
+    private static final DepartureBuffer sDepartureBuffer = new DepartureBuffer();
+
+    private static final QueryRegistry.PersistedQuery QUERY_STOPS = QueryRegistry.register(
+        "stops",
         "query {" +
         "  stops {" +
         "    gtfsId, name, lat, lon, code, vehicleType, locationType, platformCode, parentStation { gtfsId }" +
@@ -77,14 +153,15 @@ public class DigitransitApi {
         "  bikeRentalStations {" +
         "    stationId, name, lat, lon" +
         "  }" +
-        "}";
+        "}");
 
-    private static final String QUERY_CITYBIKE_STATION_STATUS =
+    private static final QueryRegistry.PersistedQuery QUERY_CITYBIKE_STATION_STATUS = QueryRegistry.register(
+        "citybikeStationStatus",
         "query ($stationId: String!) {" +
         "  bikeRentalStation(id: $stationId) {" +
         "    bikesAvailable, spacesAvailable, state" +
         "  }"+
-        "}";
+        "}");
 
 
     public static final short WAIT_TIMEOUT = 60;
@@ -95,12 +172,12 @@ public class DigitransitApi {
      * @return a Future that resolves with a JSONObject that contains all known stops as data.stops.
      */
     public static RequestFuture<JSONObject> getAllStops(Context ctx) throws JSONException {
-        JSONObject body = buildGraphQLQuery(QUERY_STOPS, null);
+        JSONObject body = buildGraphQLQuery(QUERY_STOPS.getText(), null);
 
         Logger.i(TAG, "Fetching a list of all stops from Digitransit");
         RequestFuture<JSONObject> future = RequestFuture.newFuture();
 
-        JsonObjectRequest req = new JsonObjectRequest(API_GRAPHQL, body, future, future);
+        JsonObjectRequest req = new QueryRequest(QUERY_STOPS.getName(), API_GRAPHQL, body, future, future);
         req.setTag(ctx);
 
         VolleyWrapper
@@ -111,6 +188,54 @@ public class DigitransitApi {
         return future;
     }
 
+    /**
+     * Download a list of all stops as a raw response stream. Unlike getAllStops(), the response
+     * is not buffered or parsed in memory so the caller can process it incrementally. This
+     * method blocks and MUST NOT be called from the main thread.
+     *
+     * @return an InputStream with the JSON response; the caller is responsible for closing it
+     * @throws IOException if the request fails or the server responds with an error status
+     * @throws JSONException if the request body cannot be constructed
+     */
+    public static InputStream openAllStopsStream() throws IOException, JSONException {
+        byte[] body = buildGraphQLQuery(QUERY_STOPS.getText(), null).toString().getBytes("UTF-8");
+
+        Logger.i(TAG, "Streaming a list of all stops from Digitransit");
+        OkHttpClient client = OkHttpStack.getDefaultClient().newBuilder()
+            .connectTimeout(WAIT_TIMEOUT, TimeUnit.SECONDS)
+            .readTimeout(WAIT_TIMEOUT, TimeUnit.SECONDS)
+            .writeTimeout(WAIT_TIMEOUT, TimeUnit.SECONDS)
+            .build();
+
+        Request request = new Request.Builder()
+            .url(API_GRAPHQL)
+            .header("Accept", "application/json")
+            .post(RequestBody.create(MediaType.parse("application/json; charset=utf-8"), body))
+            .build();
+
+        long start = System.nanoTime();
+        okhttp3.Response response;
+        try {
+            response = client.newCall(request).execute();
+        } catch (IOException e) {
+            Metrics.count("http." + QUERY_STOPS.getName() + ".errors");
+            throw e;
+        }
+
+        // The latency is the time to the response headers; the body is streamed afterwards
+        Metrics.recordDuration("http." + QUERY_STOPS.getName() + ".latency", System.nanoTime() - start);
+
+        ResponseBody responseBody = response.body();
+        int status = response.code();
+        if (status != 200) {
+            responseBody.close();
+            Metrics.count("http." + QUERY_STOPS.getName() + ".errors");
+            throw new IOException(String.format("Unexpected response status %d", status));
+        }
+
+        return new MeteredInputStream(QUERY_STOPS.getName(), responseBody.byteStream());
+    }
+
     /**
      * Fetch the next departures from the Digitransit API for the given stop.
      * @param ctx application context
@@ -127,29 +252,165 @@ public class DigitransitApi {
         final int numDepartures,
         final boolean includeTerminus,
         final DepartureResponseListener listener) throws JSONException
+    {
+        getDepartures(ctx, stopId, locationType, numDepartures, includeTerminus, null, listener);
+    }
+
+    /**
+     * Fetch the next departures from the Digitransit API for the given stop. If departures
+     * of the stop are already known, only the departures near the current time and after
+     * the last known departure are fetched and merged into the known ones.
+     *
+     * @param ctx application context
+     * @param stopId GTFS ID of the stop
+     * @param locationType the type of the stop
+     * @param numDepartures the number of departures to fetch
+     * @param includeTerminus whether to include arrivals to terminus in the results
+     * @param known the currently known departures of the stop or null to fetch all of them
+     * @param listener a DepartureResponseListener for the request
+     */
+    public static void getDepartures(
+        final Context ctx,
+        final String stopId,
+        final String locationType,
+        final int numDepartures,
+        final boolean includeTerminus,
+        @Nullable Vector<Departure> known,
+        final DepartureResponseListener listener) throws JSONException
     {
         HashMap<String, String> vars = new HashMap<>();
         vars.put("stop", stopId);
         vars.put("departures", String.valueOf(numDepartures));
 
-        String query = locationType.equals("STATION") ?
-            QUERY_DEPARTURES_OF_STATION : QUERY_DEPARTURES_OF_STOP;
+        boolean isStation = locationType.equals("STATION");
+        if (known == null || known.isEmpty()) {
+            QueryRegistry.PersistedQuery query = isStation ? QUERY_DEPARTURES_OF_STATION : QUERY_DEPARTURES_OF_STOP;
+
+            Logger.i(TAG, "Fetching %d departures for %s", numDepartures, stopId);
+            sendDepartureRequest(ctx, stopId, locationType, numDepartures, includeTerminus, query, vars,
+                QueryRegistry.shouldSendText(query), null, 0, listener);
+            return;
+        }
+
+        long start = System.currentTimeMillis() / 1000;
+        long windowEnd = start + UPDATE_WINDOW_SECONDS;
+        int missing = numDepartures - DepartureMerger.countAfter(known, windowEnd);
+
+        vars.put("start", String.valueOf(start));
+        vars.put("range", String.valueOf(UPDATE_WINDOW_SECONDS));
+        vars.put("after", String.valueOf(DepartureMerger.lastScheduledDeparture(known)));
+        // The last known departure is returned again so ask for one extra
+        vars.put("missing", String.valueOf(Math.max(missing, 0) + 1));
 
-        JSONObject body = buildGraphQLQuery(query, vars);
+        QueryRegistry.PersistedQuery query = isStation ?
+            QUERY_DEPARTURE_UPDATES_OF_STATION : QUERY_DEPARTURE_UPDATES_OF_STOP;
+
+        Logger.i(TAG, "Fetching departure updates for %s (%d known)", stopId, known.size());
+        sendDepartureRequest(ctx, stopId, locationType, numDepartures, includeTerminus, query, vars,
+            QueryRegistry.shouldSendText(query), new Vector<>(known), windowEnd, listener);
+    }
 
-        Logger.i(TAG, "Fetching %d departures for %s", numDepartures, stopId);
+    /**
+     * Send a departure request for a persisted query. If the server does not know a query
+     * sent by hash only, it is sent again with the full text. If known departures are given, the response is
+     * merged into them.
+     */
+    private static void sendDepartureRequest(
+        final Context ctx,
+        final String stopId,
+        final String locationType,
+        final int numDepartures,
+        final boolean includeTerminus,
+        final QueryRegistry.PersistedQuery query,
+        final HashMap<String, String> vars,
+        final boolean sendText,
+        @Nullable final Vector<Departure> known,
+        final long windowEnd,
+        final DepartureResponseListener listener) throws JSONException
+    {
+        JSONObject body = buildGraphQLQuery(query, vars, sendText);
         Logger.d(TAG, "%s", body);
 
-        JsonObjectRequest req = new JsonObjectRequest(API_GRAPHQL, body, new Response.Listener<JSONObject>() {
+        // The response is parsed on the network thread by the request itself
+        DepartureListRequest req = new DepartureListRequest(API_GRAPHQL, query.getName(), body.toString(),
+            includeTerminus, numDepartures, known, windowEnd, new Response.Listener<Vector<Departure>>() {
             @Override
-            public void onResponse(JSONObject response) {
-            Logger.d(TAG, "Got successful response");
-            try {
-                Vector<Departure> res = parseDepartureList(response, includeTerminus);
+            public void onResponse(Vector<Departure> res) {
+                Logger.d(TAG, "Got successful response");
+                QueryRegistry.onQuerySucceeded(query, sendText);
+                DepartureCache.getInstance().put(stopId, locationType, numDepartures, includeTerminus, res);
                 listener.onDeparturesAvailable(res);
-            } catch (JSONException e) {
-                listener.onDepartureLoadError(new VolleyError(e));
             }
+        }, new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                if (!sendText && isPersistedQueryNotFound(error)) {
+                    // The server did not recognize the hash; retry with the full text
+                    QueryRegistry.onHashRejected(query);
+                    try {
+                        sendDepartureRequest(ctx, stopId, locationType, numDepartures, includeTerminus, query,
+                            vars, true, known, windowEnd, listener);
+                        return;
+                    } catch (JSONException e) {
+                        Logger.wtf(TAG, "Bad JSON!", e);
+                    }
+                }
+
+                Logger.e(TAG, "Got error response", error);
+                Logger.d(TAG, error.toString());
+                listener.onDepartureLoadError(error);
+            }
+        });
+
+        req.setTag(ctx);
+
+        VolleyWrapper
+            .getInstance(ctx)
+            .getRequestQueue()
+            .add(req);
+    }
+
+    /**
+     * Fetch the next departures of multiple stops and stations in a single request. Each stop
+     * is queried under its own alias so that one round trip serves all of them.
+     *
+     * @param ctx application context
+     * @param stops a map from the GTFS ID of a stop to its location type
+     * @param numDepartures the number of departures to fetch for each stop
+     * @param includeTerminus whether to include arrivals to terminus in the results
+     * @param listener a MultiDepartureResponseListener for the request
+     */
+    public static void getDeparturesForStops(
+        final Context ctx,
+        final Map<String, String> stops,
+        final int numDepartures,
+        final boolean includeTerminus,
+        final MultiDepartureResponseListener listener) throws JSONException
+    {
+        final List<String> ids = new ArrayList<>(stops.keySet());
+        List<String> locationTypes = new ArrayList<>(ids.size());
+
+        HashMap<String, String> vars = new HashMap<>();
+        vars.put("departures", String.valueOf(numDepartures));
+        for (int i = 0; i < ids.size(); i++) {
+            vars.put("id" + i, ids.get(i));
+            locationTypes.add(stops.get(ids.get(i)));
+        }
+
+        JSONObject body = buildGraphQLQuery(QueryRegistry.minify(buildBatchDeparturesQuery(locationTypes)), vars);
+
+        Logger.i(TAG, "Fetching %d departures for %d stops", numDepartures, ids.size());
+        Logger.d(TAG, "%s", body);
+
+        JsonObjectRequest req = new QueryRequest("batchDepartures", API_GRAPHQL, body, new Response.Listener<JSONObject>() {
+            @Override
+            public void onResponse(JSONObject response) {
+                Logger.d(TAG, "Got successful response");
+                try {
+                    listener.onDeparturesAvailable(parseBatchDepartureList(response, ids, includeTerminus));
+                } catch (JSONException e) {
+                    listener.onDepartureLoadError(new VolleyError(e));
+                }
             }
         }, new Response.ErrorListener() {
             @Override
@@ -184,12 +445,13 @@ public class DigitransitApi {
         HashMap<String, String> vars = new HashMap<>();
         vars.put("stationId", stationId);
 
-        JSONObject body = buildGraphQLQuery(QUERY_CITYBIKE_STATION_STATUS, vars);
+        JSONObject body = buildGraphQLQuery(QUERY_CITYBIKE_STATION_STATUS.getText(), vars);
 
         Logger.i(TAG, "Fetching citybike station status for %s", stationId);
         Logger.d(TAG, "%s", body);
 
-        JsonObjectRequest req = new JsonObjectRequest(API_GRAPHQL, body, new Response.Listener<JSONObject>() {
+        JsonObjectRequest req = new QueryRequest(QUERY_CITYBIKE_STATION_STATUS.getName(), API_GRAPHQL, body,
+            new Response.Listener<JSONObject>() {
             @Override
             public void onResponse(JSONObject response) {
                 Logger.d(TAG, "Got successful response");
@@ -236,30 +498,100 @@ public class DigitransitApi {
             throw new JSONException("No stop or station in data");
         }
 
-        JSONObject stopOrStation = stop == null ? station : stop;
-        JSONArray raw = stopOrStation.getJSONArray("stoptimesWithoutPatterns");
+        return parseStoptimes(stop == null ? station : stop, includeTerminus);
+    }
 
-        Vector<Departure> res = new Vector<>(raw.length());
-        for (int i = 0; i < raw.length(); i++) {
-            JSONObject obj = raw.getJSONObject(i);
-            boolean isTerminus = obj.getString("pickupType").equals("NONE");
+    /**
+     * Parses a batched departure response into Vectors of Departure objects.
+     *
+     * @param response the response to parse
+     * @param ids the GTFS IDs of the stops in the order they were queried
+     * @param includeTerminus whether to include arrivals to terminus in the results
+     * @return a map from stop ID to its departures; unknown stops are left out
+     * @throws JSONException if the response JSON has unexpected format or is missing fields
+     */
+    static Map<String, Vector<Departure>> parseBatchDepartureList(
+        JSONObject response, List<String> ids, boolean includeTerminus) throws JSONException
+    {
+        JSONObject data = response.getJSONObject("data");
 
-            if (includeTerminus || !isTerminus) {
-                res.add(Departure.fromJsonObject(obj));
+        Map<String, Vector<Departure>> res = new LinkedHashMap<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            JSONObject stopOrStation = data.optJSONObject("s" + i);
+            if (stopOrStation == null) {
+                Logger.w(TAG, "No data for stop %s", ids.get(i));
+                continue;
             }
+
+            res.put(ids.get(i), parseStoptimes(stopOrStation, includeTerminus));
         }
 
         return res;
     }
 
+    /**
+     * Parses the stoptimes of a stop or station object into a Vector of Departure objects.
+     */
+    private static Vector<Departure> parseStoptimes(JSONObject stopOrStation, boolean includeTerminus)
+        throws JSONException
+    {
+        JSONArray raw = stopOrStation.getJSONArray("stoptimesWithoutPatterns");
+
+        synchronized (sDepartureBuffer) {
+            sDepartureBuffer.clear();
+            for (int i = 0; i < raw.length(); i++) {
+                sDepartureBuffer.addJsonObject(raw.getJSONObject(i));
+            }
+
+            return sDepartureBuffer.toDepartures(includeTerminus);
+        }
+    }
+
+    /**
+     * Builds a query that fetches the departures of multiple stops. The stop IDs are passed
+     * as variables $id0, $id1, ... and the results are returned under aliases s0, s1, ...
+     *
+     * @param locationTypes the location types of the stops in query order
+     * @return the query
+     */
+    static String buildBatchDeparturesQuery(List<String> locationTypes) {
+        StringBuilder vars = new StringBuilder("$departures: Int");
+        StringBuilder fields = new StringBuilder();
+        for (int i = 0; i < locationTypes.size(); i++) {
+            String field = "STATION".equals(locationTypes.get(i)) ? "station" : "stop";
+            vars.append(", $id").append(i).append(": String!");
+            fields.append("  s").append(i).append(": ").append(field).append("(id: $id").append(i).append(") ")
+                .append(BATCH_DEPARTURE_FIELDS);
+        }
+
+        return "query (" + vars + ") {" + fields + "}";
+    }
+
+    /**
+     * Builds a differential departure query for a stop or a station.
+     *
+     * @param field the field to query; stop or station
+     * @return the query
+     */
+    private static String buildDepartureUpdatesQuery(String field) {
+        return
+            "query ($stop: String!, $start: Long, $range: Int, $departures: Int, $after: Long, $missing: Int) {" +
+            "  " + field + "(id: $stop) {" +
+            "    recent: stoptimesWithoutPatterns(startTime: $start, timeRange: $range, " +
+            "numberOfDepartures: $departures) " + STOPTIME_FIELDS +
+            "    later: stoptimesWithoutPatterns(startTime: $after, numberOfDepartures: $missing) " + STOPTIME_FIELDS +
+            "  }" +
+            "}";
+    }
+
     /**
      * Builds a JSONObject request body for the given GraphQL query.
      *
-     * @param query the query
+     * @param query the query or null to leave it out
      * @param variables the variables
      * @return the request body
      */
-    static JSONObject buildGraphQLQuery(String query, @Nullable HashMap<String, String> variables)
+    static JSONObject buildGraphQLQuery(@Nullable String query, @Nullable HashMap<String, String> variables)
             throws JSONException
     {
         JSONObject req = new JSONObject();
@@ -273,6 +605,176 @@ public class DigitransitApi {
         return req;
     }
 
+    /**
+     * Builds a JSONObject request body for the given persisted query. The hash of the query
+     * is included whenever persisted queries are enabled.
+     *
+     * @param query the query
+     * @param variables the variables
+     * @param sendText whether to include the full text of the query
+     * @return the request body
+     */
+    static JSONObject buildGraphQLQuery(
+        QueryRegistry.PersistedQuery query, @Nullable HashMap<String, String> variables, boolean sendText)
+        throws JSONException
+    {
+        JSONObject req = buildGraphQLQuery(sendText ? query.getText() : null, variables);
+
+        if (QueryRegistry.isPersistedQueriesEnabled()) {
+            JSONObject persisted = new JSONObject();
+            persisted.put("version", 1);
+            persisted.put("sha256Hash", query.getHash());
+            req.put("extensions", new JSONObject().put("persistedQuery", persisted));
+        }
+
+        return req;
+    }
+
+    /**
+     * Send departure queries by their hash once the server knows them. Persisted queries are
+     * off by default since the Digitransit API does not support them; only turn them on for
+     * an endpoint that supports automatic persisted queries.
+     *
+     * @param enabled whether to use persisted queries
+     */
+    public static void setPersistedQueriesEnabled(boolean enabled) {
+        QueryRegistry.setPersistedQueriesEnabled(enabled);
+    }
+
+    /**
+     * Check if a request failed because the server did not know a persisted query. The server
+     * reports it as a GraphQL error, either with an error status or with status 200 and no
+     * data.
+     *
+     * @param error the error
+     * @return true if the response contains a persisted query not found error
+     */
+    static boolean isPersistedQueryNotFound(VolleyError error) {
+        NetworkResponse response = error.networkResponse;
+        if (response == null || response.data == null) {
+            return false;
+        }
+
+        try {
+            JSONArray errors = new JSONObject(new String(response.data, "UTF-8")).optJSONArray("errors");
+            for (int i = 0; errors != null && i < errors.length(); i++) {
+                JSONObject err = errors.optJSONObject(i);
+                if (err == null) {
+                    continue;
+                }
+
+                JSONObject extensions = err.optJSONObject("extensions");
+                if (PERSISTED_QUERY_NOT_FOUND.equals(err.optString("message")) ||
+                    (extensions != null && PERSISTED_QUERY_NOT_FOUND_CODE.equals(extensions.optString("code"))))
+                {
+                    return true;
+                }
+            }
+        } catch (JSONException | UnsupportedEncodingException e) {
+            // Not a GraphQL error response
+        }
+
+        return false;
+    }
+
+    /**
+     * Record the latency and the size of a GraphQL response in Metrics.
+     *
+     * @param query the name of the query
+     * @param response the response
+     */
+    static void recordResponse(String query, NetworkResponse response) {
+        Metrics.recordDuration("http." + query + ".latency", TimeUnit.MILLISECONDS.toNanos(response.networkTimeMs));
+        Metrics.recordSize("http." + query + ".bytes", response.data == null ? 0 : response.data.length);
+    }
+
+    /**
+     * A JSON request that records metrics of the response under the name of its query.
+     */
+    private static class QueryRequest extends JsonObjectRequest {
+        private final String mQuery;
+
+        QueryRequest(String query, String url, JSONObject body,
+                     Response.Listener<JSONObject> listener, Response.ErrorListener errorListener)
+        {
+            super(url, body, listener, errorListener);
+            mQuery = query;
+        }
+
+        @Override
+        protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
+            recordResponse(mQuery, response);
+
+            long start = Metrics.beginSection("parse." + mQuery);
+            try {
+                return super.parseNetworkResponse(response);
+            } finally {
+                Metrics.endSection("parse." + mQuery, start);
+            }
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            Metrics.count("http." + mQuery + ".errors");
+            super.deliverError(error);
+        }
+    }
+
+    /**
+     * A response stream that records the number of bytes read from it when it is closed.
+     */
+    private static class MeteredInputStream extends FilterInputStream {
+        private final String mQuery;
+        private long mBytes = 0;
+
+        MeteredInputStream(String query, InputStream in) {
+            super(in);
+            mQuery = query;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mBytes += 1;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mBytes += read;
+            }
+
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Metrics.recordSize("http." + mQuery + ".bytes", mBytes);
+            super.close();
+        }
+    }
+
+    public interface MultiDepartureResponseListener {
+        /**
+         * Called when the departures of all stops have been succesfully received
+         *
+         * @param departures a map from stop ID to the departures of that stop
+         */
+        void onDeparturesAvailable(Map<String, Vector<Departure>> departures);
+
+        /**
+         * Called when the request for departures fail with an error.
+         *
+         * @param error an object containing the reason for failure
+         */
+        void onDepartureLoadError(VolleyError error);
+    }
+
     public interface DepartureResponseListener {
         /**
          * Called when a list of departures has been succesfully received from the server
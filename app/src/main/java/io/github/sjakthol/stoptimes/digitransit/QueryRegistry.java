@@ -0,0 +1,216 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A registry of the GraphQL documents sent to the API. Documents are minified once when they
+ * are registered and identified by the SHA-256 hash of the minified text so that they can be
+ * sent as persisted queries.
+ *
+ * Persisted queries are off by default because the Digitransit API does not support them.
+ * Once enabled for an endpoint that supports automatic persisted queries, a query is sent
+ * with its full text the first time so that the server can store it, and by hash only after
+ * that. If the server does not know a query sent by hash, persisted queries are turned off for
+ * the rest of the process lifetime and the full (minified) text is sent instead.
+ */
+final class QueryRegistry {
+    private static final String TAG = QueryRegistry.class.getSimpleName();
+
+    /**
+     * A registered GraphQL document.
+     */
+    static final class PersistedQuery {
+        private final String mName;
+        private final String mText;
+        private final String mHash;
+        private volatile boolean mKnownToServer = false;
+
+        private PersistedQuery(String name, String text, String hash) {
+            mName = name;
+            mText = text;
+            mHash = hash;
+        }
+
+        /**
+         * @return the name of the query in metrics
+         */
+        String getName() {
+            return mName;
+        }
+
+        /**
+         * @return the minified text of the query
+         */
+        String getText() {
+            return mText;
+        }
+
+        /**
+         * @return the hex encoded SHA-256 hash of the minified text
+         */
+        String getHash() {
+            return mHash;
+        }
+    }
+
+    private static final List<PersistedQuery> sQueries = new ArrayList<>();
+    private static volatile boolean sPersistedQueriesEnabled = false;
+
+    private QueryRegistry() {}
+
+    /**
+     * Register a GraphQL document.
+     *
+     * @param name the name of the query in metrics
+     * @param document the document
+     * @return the registered query
+     */
+    static PersistedQuery register(String name, String document) {
+        String text = minify(document);
+        PersistedQuery query = new PersistedQuery(name, text, sha256(text));
+        synchronized (sQueries) {
+            sQueries.add(query);
+        }
+
+        return query;
+    }
+
+    /**
+     * Turn persisted queries on or off. Only turn them on if the server supports automatic
+     * persisted queries.
+     *
+     * @param enabled whether to send queries by hash once the server knows them
+     */
+    static void setPersistedQueriesEnabled(boolean enabled) {
+        sPersistedQueriesEnabled = enabled;
+    }
+
+    /**
+     * Check if persisted queries are in use.
+     *
+     * @return false if persisted queries are off or the server has rejected one
+     */
+    static boolean isPersistedQueriesEnabled() {
+        return sPersistedQueriesEnabled;
+    }
+
+    /**
+     * Check if the full text of a query has to be sent with the next request.
+     *
+     * @param query the query
+     * @return true if the text has to be sent, false if the hash is enough
+     */
+    static boolean shouldSendText(PersistedQuery query) {
+        return !sPersistedQueriesEnabled || !query.mKnownToServer;
+    }
+
+    /**
+     * Record a successful response to a query.
+     *
+     * @param query the query
+     * @param sentText whether the full text of the query was sent
+     */
+    static void onQuerySucceeded(PersistedQuery query, boolean sentText) {
+        if (sentText && sPersistedQueriesEnabled) {
+            query.mKnownToServer = true;
+        }
+    }
+
+    /**
+     * Record that the server did not accept a query that was sent by its hash only.
+     *
+     * @param query the query
+     */
+    static void onHashRejected(PersistedQuery query) {
+        Logger.w(TAG, "Server rejected persisted query %s; sending full queries from now on", query.mHash);
+        query.mKnownToServer = false;
+        sPersistedQueriesEnabled = false;
+    }
+
+    /**
+     * Reset the registry to its initial state. Used by tests.
+     */
+    static void reset() {
+        sPersistedQueriesEnabled = false;
+        synchronized (sQueries) {
+            for (PersistedQuery query : sQueries) {
+                query.mKnownToServer = false;
+            }
+        }
+    }
+
+    /**
+     * Minify a GraphQL document. Comments, commas and whitespace are dropped except for
+     * the single spaces needed to separate two names. String literals are kept as they
+     * are; block strings are not supported.
+     *
+     * @param document the document to minify
+     * @return the minified document
+     */
+    static String minify(String document) {
+        StringBuilder out = new StringBuilder(document.length());
+        boolean inString = false;
+        boolean separate = false;
+
+        for (int i = 0; i < document.length(); i++) {
+            char c = document.charAt(i);
+            if (inString) {
+                out.append(c);
+                if (c == '\\' && i + 1 < document.length()) {
+                    out.append(document.charAt(++i));
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+
+            if (c == '#') {
+                while (i + 1 < document.length() && document.charAt(i + 1) != '\n') {
+                    i++;
+                }
+                separate = true;
+                continue;
+            }
+
+            if (c == ',' || Character.isWhitespace(c)) {
+                separate = true;
+                continue;
+            }
+
+            if (separate && out.length() > 0 && isNameChar(out.charAt(out.length() - 1)) && isNameChar(c)) {
+                out.append(' ');
+            }
+
+            inString = c == '"';
+            separate = false;
+            out.append(c);
+        }
+
+        return out.toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to be available on every platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
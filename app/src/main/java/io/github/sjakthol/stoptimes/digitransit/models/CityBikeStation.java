@@ -1,9 +1,12 @@
 package io.github.sjakthol.stoptimes.digitransit.models;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 public class CityBikeStation extends Stop {
 
     /**
@@ -28,4 +31,45 @@ public class CityBikeStation extends Stop {
             false
         );
     }
+
+    /**
+     * Construct a city bike station from the next JSON object in the given reader.
+     *
+     * @param reader a JsonReader positioned at the beginning of a station object
+     * @return a CityBikeStation object
+     * @throws IOException if the JSON cannot be read
+     */
+    public static CityBikeStation fromJsonReader(@NonNull JsonReader reader) throws IOException {
+        String id = null;
+        String name = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "stationId":
+                    id = reader.nextString();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "lat":
+                    lat = reader.nextDouble();
+                    break;
+                case "lon":
+                    lon = reader.nextDouble();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (id == null || name == null) {
+            throw new IOException("Citybike station is missing required fields");
+        }
+
+        return new CityBikeStation(id, name, lat, lon, false);
+    }
 }
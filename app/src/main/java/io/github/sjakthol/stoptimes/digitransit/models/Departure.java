@@ -1,26 +1,48 @@
 package io.github.sjakthol.stoptimes.digitransit.models;
 
 import android.content.res.Resources;
+import android.support.v4.util.ObjectsCompat;
 import android.text.TextUtils;
 import io.github.sjakthol.stoptimes.R;
 import io.github.sjakthol.stoptimes.utils.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.sql.Timestamp;
-
+/**
+ * A departure from a stop. Times are stored as seconds since the epoch and the vehicle type
+ * as the ordinal of VehicleType to keep the objects small.
+ */
 public final class Departure {
     private static final String TAG = Departure.class.getSimpleName();
+    private static final VehicleType[] VEHICLE_TYPES = VehicleType.values();
+
     private final String mHeadsign;
     private final String mRoute;
-    private final VehicleType mRouteType;
+    private final byte mRouteType;
     private final boolean mRealtime;
-    private final Timestamp mRealtimeDeparture;
-    private final Timestamp mScheduledDeparture;
+    private final long mRealtimeDeparture;
+    private final long mScheduledDeparture;
     private final String mPlatform;
+    private final String mTripId;
+    private final long mServiceDay;
 
-    private Departure(String route, VehicleType routeType, String sign, String platform, Timestamp sDep, Timestamp rtDep, boolean isRt) {
-        mRoute = fixRoute(route, routeType);
+    /**
+     * Create a new departure.
+     *
+     * @param route the route short name
+     * @param routeType the ordinal of the VehicleType of the route
+     * @param sign the headsign
+     * @param platform the platform code or null
+     * @param sDep the scheduled departure in seconds since the epoch
+     * @param rtDep the realtime departure in seconds since the epoch
+     * @param isRt whether the realtime departure is a realtime prediction
+     * @param tripId the GTFS ID of the trip or null
+     * @param serviceDay the service day of the trip in seconds since the epoch
+     */
+    Departure(String route, byte routeType, String sign, String platform, long sDep, long rtDep, boolean isRt, String tripId, long serviceDay) {
+        mRoute = fixRoute(route, VEHICLE_TYPES[routeType]);
+        mTripId = TextUtils.isEmpty(tripId) || tripId.equals("null") ? null : tripId;
+        mServiceDay = serviceDay;
 
         mRouteType = routeType;
         mHeadsign = sign;
@@ -38,6 +60,7 @@ public final class Departure {
      *   "scheduledDeparture": 64620,
      *   "realtimeDeparture": 64620,
      *   "trip": {
+     *     "gtfsId": "HSL:1055_20160725_Ti_2_1609",
      *     "route": {
      *       "shortName": "A"
      *       "type": "RAIL"
@@ -63,12 +86,14 @@ public final class Departure {
 
         return new Departure(
             route.getString("shortName"),
-            routeToVehicleType(route.getString("type")),
+            (byte) routeToVehicleType(route.getString("type")).ordinal(),
             trip.getString("tripHeadsign"),
             platform,
-            new Timestamp((day + scheduled) * 1000),
-            new Timestamp((day + realtime) * 1000),
-            obj.getBoolean("realtime")
+            day + scheduled,
+            day + realtime,
+            obj.getBoolean("realtime"),
+            trip.optString("gtfsId", null),
+            day
         );
     }
 
@@ -146,7 +171,7 @@ public final class Departure {
      * @return a color resource reference
      */
     public int getRouteColor() {
-        return getRouteColor(mRouteType);
+        return getRouteColor(VEHICLE_TYPES[mRouteType]);
     }
 
     /**
@@ -184,9 +209,9 @@ public final class Departure {
     /**
      * Get the time the departure is scheduled to happen.
      *
-     * @return timestamp
+     * @return the departure time in seconds since the epoch
      */
-    public Timestamp getScheduledDeparture() {
+    public long getScheduledDeparture() {
         return mScheduledDeparture;
     }
 
@@ -194,9 +219,9 @@ public final class Departure {
      * Get the time the departure is about to happen based on realtime information. If realtime information is not
      * available this will be the same as scheduled departure.
      *
-     * @return realtime departure timestamp
+     * @return realtime departure time in seconds since the epoch
      */
-    public Timestamp getRealtimeDeparture() {
+    public long getRealtimeDeparture() {
         return mRealtimeDeparture;
     }
 
@@ -219,7 +244,7 @@ public final class Departure {
     }
 
     public String formatPlatformCode(Resources res) {
-        if (mRouteType == VehicleType.COMMUTER_TRAIN) {
+        if (VEHICLE_TYPES[mRouteType] == VehicleType.COMMUTER_TRAIN) {
             // For trains, call the platform "Track"
             return res.getString(R.string.platform_code_train, getPlatform());
         }
@@ -227,4 +252,44 @@ public final class Departure {
         // For others call it 'Platform'
         return res.getString(R.string.platform_code_default, getPlatform());
     }
+
+    /**
+     * Check if this and the given departure are the same trip on the same service day, i.e.
+     * two versions of the same departure. Departures without a trip ID are identified by
+     * their route, headsign and scheduled departure time.
+     *
+     * @param other the departure to compare to
+     * @return true if the departures are the same
+     */
+    public boolean isSameDeparture(Departure other) {
+        if (mTripId != null && other.mTripId != null) {
+            return mTripId.equals(other.mTripId) && mServiceDay == other.mServiceDay;
+        }
+
+        return mRoute.equals(other.mRoute) &&
+            mHeadsign.equals(other.mHeadsign) &&
+            mScheduledDeparture == other.mScheduledDeparture;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Departure)) return false;
+        Departure that = (Departure) o;
+        return mRealtime == that.mRealtime &&
+            mServiceDay == that.mServiceDay &&
+            mRouteType == that.mRouteType &&
+            mRoute.equals(that.mRoute) &&
+            mHeadsign.equals(that.mHeadsign) &&
+            mScheduledDeparture == that.mScheduledDeparture &&
+            mRealtimeDeparture == that.mRealtimeDeparture &&
+            ObjectsCompat.equals(mPlatform, that.mPlatform) &&
+            ObjectsCompat.equals(mTripId, that.mTripId);
+    }
+
+    @Override
+    public int hashCode() {
+        return ObjectsCompat.hash(mRoute, mRouteType, mHeadsign, mRealtime, mScheduledDeparture,
+            mRealtimeDeparture, mPlatform, mTripId, mServiceDay);
+    }
 }
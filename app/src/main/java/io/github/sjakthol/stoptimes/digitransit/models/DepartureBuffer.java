@@ -0,0 +1,167 @@
+package io.github.sjakthol.stoptimes.digitransit.models;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * A reusable buffer for parsing departures. The fields of the parsed departures are kept in
+ * parallel arrays that grow as needed and are reused between responses, and the route and
+ * headsign strings are pooled so that every refresh shares the same instances.
+ *
+ * The buffer is not thread-safe.
+ */
+public final class DepartureBuffer {
+    private static final int INITIAL_CAPACITY = 32;
+
+    /**
+     * The pool is cleared once it grows past this to keep it from growing without bounds.
+     */
+    private static final int MAX_POOLED_STRINGS = 1024;
+
+    private final HashMap<String, String> mStrings = new HashMap<>();
+
+    private int mSize = 0;
+    private String[] mRoutes = new String[INITIAL_CAPACITY];
+    private byte[] mRouteTypes = new byte[INITIAL_CAPACITY];
+    private String[] mHeadsigns = new String[INITIAL_CAPACITY];
+    private String[] mPlatforms = new String[INITIAL_CAPACITY];
+    private String[] mTripIds = new String[INITIAL_CAPACITY];
+    private long[] mServiceDays = new long[INITIAL_CAPACITY];
+    private long[] mScheduled = new long[INITIAL_CAPACITY];
+    private long[] mRealtime = new long[INITIAL_CAPACITY];
+    private boolean[] mIsRealtime = new boolean[INITIAL_CAPACITY];
+    private boolean[] mIsTerminus = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Remove all departures from the buffer.
+     */
+    public void clear() {
+        // Drop the references so that the strings of old responses can be collected
+        Arrays.fill(mRoutes, 0, mSize, null);
+        Arrays.fill(mHeadsigns, 0, mSize, null);
+        Arrays.fill(mPlatforms, 0, mSize, null);
+        Arrays.fill(mTripIds, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Get the number of departures in the buffer.
+     *
+     * @return the number of departures
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Add a departure to the buffer.
+     *
+     * @param route the route short name
+     * @param routeType the raw route type of the route
+     * @param headsign the headsign
+     * @param platform the platform code or null
+     * @param tripId the GTFS ID of the trip or null
+     * @param serviceDay the service day in seconds since the epoch
+     * @param scheduled the scheduled departure in seconds since the start of the service day
+     * @param realtime the realtime departure in seconds since the start of the service day
+     * @param isRealtime whether the realtime departure is a realtime prediction
+     * @param isTerminus whether this is an arrival to the terminus
+     */
+    public void add(String route, String routeType, String headsign, String platform, String tripId,
+                    long serviceDay, long scheduled, long realtime, boolean isRealtime, boolean isTerminus)
+    {
+        if (mSize == mRoutes.length) {
+            grow();
+        }
+
+        int i = mSize++;
+        mRoutes[i] = pool(route);
+        mRouteTypes[i] = (byte) Departure.routeToVehicleType(routeType).ordinal();
+        mHeadsigns[i] = pool(headsign);
+        mPlatforms[i] = pool(platform);
+        mTripIds[i] = tripId;
+        mServiceDays[i] = serviceDay;
+        mScheduled[i] = serviceDay + scheduled;
+        mRealtime[i] = serviceDay + realtime;
+        mIsRealtime[i] = isRealtime;
+        mIsTerminus[i] = isTerminus;
+    }
+
+    /**
+     * Add a departure from a JSON object of the form accepted by Departure.fromJsonObject().
+     *
+     * @param obj the JSON object to parse
+     * @throws JSONException if the JSON is not valid, unexpected or is missing some fields
+     */
+    public void addJsonObject(JSONObject obj) throws JSONException {
+        JSONObject trip = obj.getJSONObject("trip");
+        JSONObject route = trip.getJSONObject("route");
+
+        add(
+            route.getString("shortName"),
+            route.getString("type"),
+            trip.getString("tripHeadsign"),
+            obj.getJSONObject("stop").optString("platformCode", null),
+            trip.optString("gtfsId", null),
+            obj.getLong("serviceDay"),
+            obj.getLong("scheduledDeparture"),
+            obj.getLong("realtimeDeparture"),
+            obj.getBoolean("realtime"),
+            obj.getString("pickupType").equals("NONE")
+        );
+    }
+
+    /**
+     * Create Departure objects of the departures in the buffer.
+     *
+     * @param includeTerminus whether to include arrivals to terminus
+     * @return the departures in the order they were added
+     */
+    public Vector<Departure> toDepartures(boolean includeTerminus) {
+        Vector<Departure> res = new Vector<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            if (includeTerminus || !mIsTerminus[i]) {
+                res.add(new Departure(mRoutes[i], mRouteTypes[i], mHeadsigns[i], mPlatforms[i],
+                    mScheduled[i], mRealtime[i], mIsRealtime[i], mTripIds[i], mServiceDays[i]));
+            }
+        }
+
+        return res;
+    }
+
+    private String pool(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        String pooled = mStrings.get(value);
+        if (pooled == null) {
+            if (mStrings.size() >= MAX_POOLED_STRINGS) {
+                mStrings.clear();
+            }
+
+            mStrings.put(value, value);
+            pooled = value;
+        }
+
+        return pooled;
+    }
+
+    private void grow() {
+        int capacity = mRoutes.length * 2;
+        mRoutes = Arrays.copyOf(mRoutes, capacity);
+        mRouteTypes = Arrays.copyOf(mRouteTypes, capacity);
+        mHeadsigns = Arrays.copyOf(mHeadsigns, capacity);
+        mPlatforms = Arrays.copyOf(mPlatforms, capacity);
+        mTripIds = Arrays.copyOf(mTripIds, capacity);
+        mServiceDays = Arrays.copyOf(mServiceDays, capacity);
+        mScheduled = Arrays.copyOf(mScheduled, capacity);
+        mRealtime = Arrays.copyOf(mRealtime, capacity);
+        mIsRealtime = Arrays.copyOf(mIsRealtime, capacity);
+        mIsTerminus = Arrays.copyOf(mIsTerminus, capacity);
+    }
+}
@@ -7,12 +7,16 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import io.github.sjakthol.stoptimes.R;
 import io.github.sjakthol.stoptimes.db.StopListContract;
 import io.github.sjakthol.stoptimes.utils.Logger;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 public class Stop {
     private static final String TAG = Stop.class.getSimpleName();
     static final int CITYBIKE_CODE = 99001;
@@ -111,6 +115,118 @@ public class Stop {
         );
     }
 
+    /**
+     * Construct a stop object from the next JSON object in the given reader. The object must
+     * have the same form as the one accepted by fromJson(). Unknown fields are skipped.
+     *
+     * @param reader a JsonReader positioned at the beginning of a stop object
+     *
+     * @return a Stop object
+     * @throws IOException if the JSON cannot be read
+     */
+    public static Stop fromJsonReader(@NonNull JsonReader reader) throws IOException {
+        String id = null;
+        String name = null;
+        String code = "";
+        double lat = 0;
+        double lon = 0;
+        String platform = null;
+        int vehicleType = 3;
+        String locationType = null;
+        String parentStation = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "gtfsId":
+                    id = reader.nextString();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "code":
+                    code = nextStringOrNull(reader);
+                    if (code == null) {
+                        code = "";
+                    }
+                    break;
+                case "lat":
+                    lat = reader.nextDouble();
+                    break;
+                case "lon":
+                    lon = reader.nextDouble();
+                    break;
+                case "platformCode":
+                    platform = nextStringOrNull(reader);
+                    break;
+                case "vehicleType":
+                    vehicleType = reader.nextInt();
+                    break;
+                case "locationType":
+                    locationType = reader.nextString();
+                    break;
+                case "parentStation":
+                    parentStation = nextParentStation(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (id == null || name == null || locationType == null) {
+            throw new IOException("Stop is missing required fields");
+        }
+
+        return new Stop(id, name, code, lat, lon, platform, vehicleType, locationType, parentStation, false);
+    }
+
+    /**
+     * Read the next value as a string or null if the value is JSON null.
+     *
+     * @param reader the reader to read from
+     * @return the string or null
+     * @throws IOException if the JSON cannot be read
+     */
+    @Nullable
+    static String nextStringOrNull(@NonNull JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextString();
+    }
+
+    /**
+     * Read the gtfsId from the next parentStation value.
+     *
+     * @param reader the reader to read from
+     * @return the gtfsId of the parent station or null if the stop has no parent
+     * @throws IOException if the JSON cannot be read
+     */
+    @Nullable
+    private static String nextParentStation(@NonNull JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            // null or some other junk; treat as no parent
+            reader.skipValue();
+            return null;
+        }
+
+        String id = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("gtfsId")) {
+                id = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return id;
+    }
+
     /**
      * Convert the given vehicle type code to a corresponding constant. Known types: 0 TRAM, 1 SUBWAY, 3 BUS and
      * 109 COMMUTER_TRAIN.
@@ -197,6 +313,24 @@ public class Stop {
         return loc;
     }
 
+    /**
+     * The latitude of this stop.
+     *
+     * @return latitude
+     */
+    public double getLat() {
+        return mLat;
+    }
+
+    /**
+     * The longitude of this stop.
+     *
+     * @return longitude
+     */
+    public double getLon() {
+        return mLon;
+    }
+
     /**
      * Get the city this stop resides in
      *
@@ -0,0 +1,81 @@
+package io.github.sjakthol.stoptimes.utils;
+
+import okhttp3.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A DNS resolver that remembers the addresses of resolved hosts for a while. The app talks
+ * to a single API host over and over again so this saves a lookup from most new connections.
+ * Failed lookups are not cached.
+ */
+public class CachingDns implements Dns {
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long expires;
+
+        Entry(List<InetAddress> addresses, long expires) {
+            this.addresses = addresses;
+            this.expires = expires;
+        }
+    }
+
+    private final Dns mDelegate;
+    private final long mTtlMillis;
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Create a new resolver.
+     *
+     * @param delegate the resolver to use for hosts that are not cached
+     * @param ttlMillis the time to cache the addresses of a host for
+     */
+    public CachingDns(Dns delegate, long ttlMillis) {
+        mDelegate = delegate;
+        mTtlMillis = ttlMillis;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        return lookup(hostname, TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+    }
+
+    /**
+     * Resolve the addresses of a host.
+     *
+     * @param hostname the host to resolve
+     * @param now the current time in ms
+     * @return the addresses of the host
+     * @throws UnknownHostException if the host cannot be resolved
+     */
+    List<InetAddress> lookup(String hostname, long now) throws UnknownHostException {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(hostname);
+            if (entry != null && now < entry.expires) {
+                return entry.addresses;
+            }
+        }
+
+        // Resolve without holding the lock so that a slow lookup does not block other hosts
+        List<InetAddress> addresses = mDelegate.lookup(hostname);
+        synchronized (mEntries) {
+            mEntries.put(hostname, new Entry(addresses, now + mTtlMillis));
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Forget all cached addresses. StopTimesApplication calls this through
+     * OkHttpStack.clearDnsCache() when the network changes.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+}
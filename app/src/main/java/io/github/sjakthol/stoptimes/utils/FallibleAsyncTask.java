@@ -5,6 +5,9 @@ import io.github.sjakthol.stoptimes.BuildConfig;
 
 /**
  * A wrapper around AsyncTask that handles failures.
+ *
+ * The time each task waits for a thread and the time it runs are recorded in Metrics under
+ * task.[type].wait and task.[type].run where [type] is the name of the task class.
  */
 abstract public class FallibleAsyncTask<T, V> extends AsyncTask<T, Void, AsyncTaskResult<V>> {
     private static final String TAG = FallibleAsyncTask.class.getSimpleName();
@@ -14,13 +17,26 @@ abstract public class FallibleAsyncTask<T, V> extends AsyncTask<T, Void, AsyncTa
      */
     private long mStart;
 
+    /**
+     * The name of the task in metrics and traces.
+     */
+    private final String mName;
+
+    protected FallibleAsyncTask() {
+        // Anonymous subclasses are named after the task they extend
+        Class<?> cls = getClass();
+        while (cls.isAnonymousClass()) {
+            cls = cls.getSuperclass();
+        }
+
+        mName = cls.getSimpleName();
+    }
+
     @Override
     protected void onPreExecute() {
         super.onPreExecute();
 
-        if (BuildConfig.DEBUG) {
-            mStart = System.nanoTime();
-        }
+        mStart = System.nanoTime();
     }
 
     @Override
@@ -36,11 +52,16 @@ abstract public class FallibleAsyncTask<T, V> extends AsyncTask<T, Void, AsyncTa
 
     @Override
     protected AsyncTaskResult<V> doInBackground(T... params) {
+        long start = Metrics.beginSection(mName);
+        Metrics.recordDuration("task." + mName + ".wait", start - mStart);
         try {
             return new AsyncTaskResult<>(runTask(params));
         } catch (Throwable e) {
             Logger.d("FallibleAsyncTask", "runTask() failed", e);
+            Metrics.count("task." + mName + ".failed");
             return new AsyncTaskResult<>(e);
+        } finally {
+            Metrics.endSection("task." + mName + ".run", start);
         }
     }
 
@@ -2,10 +2,15 @@ package io.github.sjakthol.stoptimes.utils;
 
 import android.Manifest;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringRes;
@@ -21,6 +26,7 @@ import java.util.Locale;
  */
 public class Helpers {
     private static final String TAG = Helpers.class.getSimpleName();
+    private static final int LOW_BATTERY_PERCENT = 15;
 
     public static Snackbar snackbarWithAction(
         @NonNull View view,
@@ -91,6 +97,39 @@ public class Helpers {
         editor.apply();
     }
 
+    /**
+     * Retrieve the number of departures to show from prefs.
+     *
+     * @param context the application context
+     * @return the number of departures to fetch
+     */
+    public static int getNumDepartures(Context context) {
+        String key = context.getString(R.string.pref_key_departures_num_results);
+        String limit = PreferenceManager
+                .getDefaultSharedPreferences(context)
+                .getString(key, "20");
+
+        try {
+            return Integer.valueOf(limit);
+        } catch (NumberFormatException e) {
+            Logger.w(TAG, "getNumDepartures(): Invalid limit %s", limit);
+            return 10;
+        }
+    }
+
+    /**
+     * Check if arrivals to terminus should be shown.
+     *
+     * @param context the application context
+     * @return true if arrivals to terminus are shown
+     */
+    public static boolean getShowArrivalsToTerminus(Context context) {
+        String key = context.getString(R.string.pref_key_show_arrivals_to_terminus);
+        return PreferenceManager
+            .getDefaultSharedPreferences(context)
+            .getBoolean(key, false);
+    }
+
     /**
      * Format the given distance in meters to a human readable format.
      *
@@ -148,4 +187,54 @@ public class Helpers {
 
         return info != null && info.isConnected();
     }
+
+    /**
+     * Check if the active network connection is metered.
+     *
+     * @param context a Context reference to get a ConnectivityManager
+     * @return true if the connection is metered or unknown, false if not
+     */
+    public static boolean isMetered(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager)
+                context.getSystemService(Context.CONNECTIVITY_SERVICE);
+
+        if (connectivityManager == null) {
+            Logger.w("NetUtil", "Could not get ConnectivityManager");
+            return true;
+        }
+
+        return connectivityManager.isActiveNetworkMetered();
+    }
+
+    /**
+     * Check if the device should save power, i.e. power saving mode is on or the battery is
+     * low and not charging.
+     *
+     * @param context a Context reference to read the battery state
+     * @return true if power should be saved
+     */
+    public static boolean shouldSavePower(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (powerManager != null && powerManager.isPowerSaveMode()) {
+                return true;
+            }
+        }
+
+        // The battery status is a sticky broadcast so no receiver is needed
+        Intent battery = context.getApplicationContext().registerReceiver(
+            null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return false;
+        }
+
+        int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        if (status == BatteryManager.BATTERY_STATUS_CHARGING || status == BatteryManager.BATTERY_STATUS_FULL) {
+            return false;
+        }
+
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        return level >= 0 && scale > 0 && level * 100 / scale <= LOW_BATTERY_PERCENT;
+    }
 }
@@ -0,0 +1,285 @@
+package io.github.sjakthol.stoptimes.utils;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, histograms and trace sections for the hot paths of the app. Recording a value
+ * only updates a few atomic longs so the metrics are collected in release builds too.
+ *
+ * Histograms keep the values in power of two buckets, so percentiles are accurate to within
+ * a factor of two. Trace sections show up in systrace when the app is traced and cost next
+ * to nothing when it is not.
+ *
+ * Debug builds write the metrics to metrics.txt in the internal files directory of the app
+ * when an activity is stopped. It can be read with
+ * adb shell run-as [package] cat files/metrics.txt
+ */
+public final class Metrics {
+    private static final String TAG = Metrics.class.getSimpleName();
+    private static final String EXPORT_FILE = "metrics.txt";
+
+    /**
+     * The framework tracing methods need API 18 and a device; they fail in JVM unit tests.
+     */
+    private static final boolean TRACING =
+        !Helpers.isInJUnitTest() && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private static final ConcurrentMap<String, AtomicLong> sCounters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Histogram> sHistograms = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    /**
+     * Increment a counter by one.
+     *
+     * @param name the name of the counter
+     */
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    /**
+     * Increment a counter.
+     *
+     * @param name the name of the counter
+     * @param delta the amount to add
+     */
+    public static void count(String name, long delta) {
+        AtomicLong counter = sCounters.get(name);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = sCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Record a duration.
+     *
+     * @param name the name of the histogram
+     * @param nanos the duration in nanoseconds
+     */
+    public static void recordDuration(String name, long nanos) {
+        histogram(name, "us").record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Record a size.
+     *
+     * @param name the name of the histogram
+     * @param bytes the size in bytes
+     */
+    public static void recordSize(String name, long bytes) {
+        histogram(name, "B").record(bytes);
+    }
+
+    /**
+     * Start a trace section on the current thread. Sections must be ended on the same thread
+     * in the reverse order they were started.
+     *
+     * @param name the name of the section; at most 127 characters
+     * @return the start time to pass to endSection()
+     */
+    public static long beginSection(String name) {
+        if (TRACING) {
+            Trace.beginSection(name);
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+     * End the current trace section and record its duration.
+     *
+     * @param name the name of the histogram for the duration
+     * @param start the value beginSection() returned
+     */
+    public static void endSection(String name, long start) {
+        recordDuration(name, System.nanoTime() - start);
+
+        if (TRACING) {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Get the value of a counter.
+     *
+     * @param name the name of the counter
+     * @return the value or 0 if nothing has been counted
+     */
+    public static long getCount(String name) {
+        AtomicLong counter = sCounters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Get a histogram.
+     *
+     * @param name the name of the histogram
+     * @return the histogram or null if nothing has been recorded
+     */
+    static Histogram getHistogram(String name) {
+        return sHistograms.get(name);
+    }
+
+    /**
+     * Forget all recorded values.
+     */
+    static void reset() {
+        sCounters.clear();
+        sHistograms.clear();
+    }
+
+    /**
+     * Write all metrics in a human readable form sorted by name.
+     *
+     * @param out the writer to write to
+     */
+    public static void dump(PrintWriter out) {
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(sCounters).entrySet()) {
+            out.printf("%s: %d%n", entry.getKey(), entry.getValue().get());
+        }
+
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(sHistograms).entrySet()) {
+            out.printf("%s: %s%n", entry.getKey(), entry.getValue());
+        }
+
+        out.flush();
+    }
+
+    /**
+     * Write the metrics to the export file in the internal files directory in a background
+     * thread. The internal storage is always available and needs no permissions.
+     *
+     * @param ctx a context
+     */
+    public static void export(Context ctx) {
+        final Context app = ctx.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                PrintWriter out = null;
+                try {
+                    out = new PrintWriter(new OutputStreamWriter(
+                        new FileOutputStream(new File(app.getFilesDir(), EXPORT_FILE)), "UTF-8"));
+                    dump(out);
+                } catch (IOException e) {
+                    Logger.w(TAG, "Failed to export metrics", e);
+                } finally {
+                    if (out != null) {
+                        out.close();
+                    }
+                }
+            }
+        });
+    }
+
+    private static Histogram histogram(String name, String unit) {
+        Histogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(unit);
+            histogram = sHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        return histogram;
+    }
+
+    /**
+     * A histogram of non-negative values with power of two buckets. Bucket i holds the values
+     * that need i bits, i.e. values in [2^(i-1), 2^i - 1].
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final String mUnit;
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        Histogram(String unit) {
+            mUnit = unit;
+        }
+
+        void record(long value) {
+            value = Math.max(value, 0);
+            mBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+
+            long max;
+            do {
+                max = mMax.get();
+            } while (value > max && !mMax.compareAndSet(max, value));
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        /**
+         * Estimate a percentile. The result is the upper bound of the bucket the percentile
+         * falls into, capped to the largest recorded value.
+         *
+         * @param percentile the percentile between 0 and 100
+         * @return the estimate
+         */
+        long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min((1L << i) - 1, mMax.get());
+                }
+            }
+
+            return mMax.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count %d, mean %d %s, p50 %d %s, p90 %d %s, p99 %d %s, max %d %s",
+                getCount(), getMean(), mUnit, getPercentile(50), mUnit, getPercentile(90), mUnit,
+                getPercentile(99), mUnit, getMax(), mUnit);
+        }
+    }
+}
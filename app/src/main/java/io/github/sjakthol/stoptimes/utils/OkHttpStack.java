@@ -0,0 +1,266 @@
+package io.github.sjakthol.stoptimes.utils;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Header;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Request;
+import com.android.volley.toolbox.BaseHttpStack;
+import com.android.volley.toolbox.HttpResponse;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Volley HTTP stack that executes requests with OkHttp.
+ *
+ * All requests share a single client so that connections to the API are kept alive and
+ * reused between refreshes, HTTP/2 is used when the server supports it, responses are gzip
+ * compressed transparently and the address of the API host is only resolved every now and
+ * then.
+ */
+public class OkHttpStack extends BaseHttpStack {
+    /**
+     * The number of idle connections to keep in the pool and how long to keep them.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    /**
+     * The time to cache resolved addresses for.
+     */
+    private static final long DNS_TTL_MILLIS = 5 * 60000;
+
+    /**
+     * The resolver shared by all clients so that it can be cleared when the network changes.
+     */
+    private static final CachingDns sDns = new CachingDns(Dns.SYSTEM, DNS_TTL_MILLIS);
+
+    private static OkHttpClient sDefaultClient;
+
+    private final OkHttpClient mClient;
+
+    /**
+     * Clients derived from mClient for requests with other timeouts, keyed by the timeout.
+     */
+    private final Map<Integer, OkHttpClient> mClientsByTimeout = new HashMap<>();
+
+    /**
+     * Create a stack that uses the shared default client.
+     */
+    public OkHttpStack() {
+        this(getDefaultClient());
+    }
+
+    /**
+     * Create a stack that uses the given client.
+     *
+     * @param client the client to execute requests with
+     */
+    public OkHttpStack(OkHttpClient client) {
+        mClient = client;
+    }
+
+    /**
+     * Get the client shared by all network requests of the app.
+     *
+     * @return the shared client
+     */
+    public static synchronized OkHttpClient getDefaultClient() {
+        if (sDefaultClient == null) {
+            sDefaultClient = newClientBuilder(false).build();
+        }
+
+        return sDefaultClient;
+    }
+
+    /**
+     * Create a builder for a client with a connection pool and a caching DNS resolver. The
+     * timeouts match the default timeout of Volley requests.
+     *
+     * @param gzipRequests whether to gzip compress request bodies; the server must support
+     *                     compressed requests for this to work
+     * @return the builder
+     */
+    public static OkHttpClient.Builder newClientBuilder(boolean gzipRequests) {
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .dns(sDns)
+            .connectTimeout(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .readTimeout(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+            .writeTimeout(DefaultRetryPolicy.DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        if (gzipRequests) {
+            builder.addInterceptor(new GzipRequestInterceptor());
+        }
+
+        return builder;
+    }
+
+    /**
+     * Forget the cached addresses. Call this when the network changes; the addresses resolved
+     * on the previous network may not be the best ones or even reachable on the new one.
+     */
+    public static void clearDnsCache() {
+        sDns.clear();
+    }
+
+    @Override
+    public HttpResponse executeRequest(Request<?> request, Map<String, String> additionalHeaders)
+        throws IOException, AuthFailureError
+    {
+        OkHttpClient client = getClient(request.getTimeoutMs());
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(request.getUrl());
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        for (Map.Entry<String, String> header : additionalHeaders.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        setMethodAndBody(builder, request);
+
+        Response response = client.newCall(builder.build()).execute();
+
+        Headers headers = response.headers();
+        List<Header> volleyHeaders = new ArrayList<>(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            volleyHeaders.add(new Header(headers.name(i), headers.value(i)));
+        }
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            return new HttpResponse(response.code(), volleyHeaders);
+        }
+
+        return new HttpResponse(response.code(), volleyHeaders, (int) body.contentLength(), body.byteStream());
+    }
+
+    /**
+     * Get a client that uses the given timeout for connecting, reading and writing.
+     *
+     * @param timeout the timeout in milliseconds
+     * @return mClient if its timeouts match, a cached client derived from it otherwise
+     */
+    OkHttpClient getClient(int timeout) {
+        if (timeout == mClient.connectTimeoutMillis() && timeout == mClient.readTimeoutMillis()
+            && timeout == mClient.writeTimeoutMillis())
+        {
+            return mClient;
+        }
+
+        synchronized (mClientsByTimeout) {
+            OkHttpClient client = mClientsByTimeout.get(timeout);
+            if (client == null) {
+                // The derived client shares the connection pool of the original one
+                client = mClient.newBuilder()
+                    .connectTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .writeTimeout(timeout, TimeUnit.MILLISECONDS)
+                    .build();
+                mClientsByTimeout.put(timeout, client);
+            }
+
+            return client;
+        }
+    }
+
+    private static void setMethodAndBody(okhttp3.Request.Builder builder, Request<?> request)
+        throws AuthFailureError
+    {
+        switch (request.getMethod()) {
+            case Request.Method.DEPRECATED_GET_OR_POST:
+                byte[] body = request.getBody();
+                if (body != null) {
+                    builder.post(createBody(request, body));
+                }
+                break;
+            case Request.Method.GET:
+                builder.get();
+                break;
+            case Request.Method.DELETE:
+                builder.delete();
+                break;
+            case Request.Method.POST:
+                builder.post(createBody(request, request.getBody()));
+                break;
+            case Request.Method.PUT:
+                builder.put(createBody(request, request.getBody()));
+                break;
+            case Request.Method.HEAD:
+                builder.head();
+                break;
+            case Request.Method.OPTIONS:
+                builder.method("OPTIONS", null);
+                break;
+            case Request.Method.TRACE:
+                builder.method("TRACE", null);
+                break;
+            case Request.Method.PATCH:
+                builder.patch(createBody(request, request.getBody()));
+                break;
+            default:
+                throw new IllegalStateException("Unknown request method " + request.getMethod());
+        }
+    }
+
+    private static RequestBody createBody(Request<?> request, byte[] body) {
+        return RequestBody.create(MediaType.parse(request.getBodyContentType()), body == null ? new byte[0] : body);
+    }
+
+    /**
+     * An interceptor that gzip compresses the bodies of outgoing requests.
+     */
+    static class GzipRequestInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            okhttp3.Request original = chain.request();
+            if (original.body() == null || original.header("Content-Encoding") != null) {
+                return chain.proceed(original);
+            }
+
+            okhttp3.Request compressed = original.newBuilder()
+                .header("Content-Encoding", "gzip")
+                .method(original.method(), gzip(original.body()))
+                .build();
+
+            return chain.proceed(compressed);
+        }
+
+        private static RequestBody gzip(final RequestBody body) {
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return body.contentType();
+                }
+
+                @Override
+                public long contentLength() {
+                    // Unknown until compressed
+                    return -1;
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                    body.writeTo(gzipSink);
+                    gzipSink.close();
+                }
+            };
+        }
+    }
+}
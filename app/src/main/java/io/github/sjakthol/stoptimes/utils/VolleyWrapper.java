@@ -3,16 +3,19 @@ package io.github.sjakthol.stoptimes.utils;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import com.android.volley.RequestQueue;
+import com.android.volley.toolbox.BaseHttpStack;
 import com.android.volley.toolbox.Volley;
 
 /**
  * A singleton class that wraps Volley request queue for the duration
- * of the application lifetime.
+ * of the application lifetime. Requests are executed with OkHttpStack
+ * unless another HTTP stack is set before the queue is first used.
  */
 public class VolleyWrapper {
     @SuppressLint("StaticFieldLeak")
     private static VolleyWrapper mInstance;
     private static RequestQueue mRequestQueue;
+    private static BaseHttpStack mHttpStack;
     @SuppressLint("StaticFieldLeak")
     private static Context mContext;
 
@@ -27,12 +30,30 @@ public class VolleyWrapper {
      */
     public RequestQueue getRequestQueue() {
         if (mRequestQueue == null) {
-            mRequestQueue = Volley.newRequestQueue(mContext.getApplicationContext());
+            if (mHttpStack == null) {
+                mHttpStack = new OkHttpStack();
+            }
+
+            mRequestQueue = Volley.newRequestQueue(mContext.getApplicationContext(), mHttpStack);
         }
 
         return mRequestQueue;
     }
 
+    /**
+     * Set the HTTP stack used to execute requests. This MUST be called before the request
+     * queue is first used.
+     *
+     * @param stack the stack to use
+     */
+    public static synchronized void setHttpStack(BaseHttpStack stack) {
+        if (mRequestQueue != null) {
+            throw new IllegalStateException("The request queue has already been created");
+        }
+
+        mHttpStack = stack;
+    }
+
     /**
      * Get the singleton instance of the wrapper.
      *
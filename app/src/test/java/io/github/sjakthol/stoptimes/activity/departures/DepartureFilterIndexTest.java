@@ -0,0 +1,41 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DepartureFilterIndexTest {
+    @Test
+    public void test_matchesRouteAndHeadsign() throws Exception {
+        DepartureFilterIndex index = new DepartureFilterIndex();
+        index.add("550", "Itäkeskus");
+        index.add("550", "Westendinasema");
+        index.add("102", "Otaniemi");
+
+        assertThat(index.matches("550", "Itäkeskus"), is(true));
+        assertThat(index.matches("550", "Westendinasema"), is(true));
+        assertThat(index.matches("102", "Otaniemi"), is(true));
+        assertThat(index.matches("102", "Itäkeskus"), is(false));
+        assertThat(index.matches("551", "Itäkeskus"), is(false));
+    }
+
+    @Test
+    public void test_remove() throws Exception {
+        DepartureFilterIndex index = new DepartureFilterIndex();
+        index.add("550", "Itäkeskus");
+        index.add("550", "Westendinasema");
+
+        index.remove("550", "Itäkeskus");
+        assertThat(index.matches("550", "Itäkeskus"), is(false));
+        assertThat(index.matches("550", "Westendinasema"), is(true));
+        assertThat(index.isEmpty(), is(false));
+
+        index.remove("550", "Westendinasema");
+        assertThat(index.isEmpty(), is(true));
+
+        // Removing a missing filter is a no-op
+        index.remove("102", "Otaniemi");
+        assertThat(index.isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,133 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import io.github.sjakthol.stoptimes.activity.departures.DepartureListAdapter.DepartureRow;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.digitransit.models.DepartureBuffer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static io.github.sjakthol.stoptimes.activity.departures.DepartureListAdapter.DIFF_CALLBACK;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DepartureListAdapterTest {
+    private static final long DAY = 1500000000;
+
+    /**
+     * Build a departure of the given trip.
+     */
+    private static Departure departure(String trip, long scheduled, long realtime) {
+        DepartureBuffer buffer = new DepartureBuffer();
+        buffer.add("550", "3", "Itäkeskus", null, "HSL:" + trip, DAY, scheduled, realtime, true, false);
+        return buffer.toDepartures(true).get(0);
+    }
+
+    private static DepartureRow row(Departure departure) {
+        return new DepartureRow(departure, false, false, false);
+    }
+
+    /**
+     * Diff the lists like AsyncListDiffer does and count the updates of each kind.
+     *
+     * @return the number of {inserted, removed, moved, changed} rows
+     */
+    private static int[] diff(final List<DepartureRow> before, final List<DepartureRow> after) {
+        DiffUtil.DiffResult result = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return before.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return after.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int o, int n) {
+                return DIFF_CALLBACK.areItemsTheSame(before.get(o), after.get(n));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int o, int n) {
+                return DIFF_CALLBACK.areContentsTheSame(before.get(o), after.get(n));
+            }
+        }, true);
+
+        final int[] counts = new int[4];
+        result.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                counts[0] += count;
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                counts[1] += count;
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                counts[2]++;
+            }
+
+            @Override
+            public void onChanged(int position, int count, Object payload) {
+                counts[3] += count;
+            }
+        });
+
+        return counts;
+    }
+
+    @Test
+    public void test_realtimeChange() {
+        DepartureRow before = row(departure("1", 100, 100));
+        DepartureRow after = row(departure("1", 100, 130));
+
+        assertThat(DIFF_CALLBACK.areItemsTheSame(before, after), is(true));
+        assertThat(DIFF_CALLBACK.areContentsTheSame(before, after), is(false));
+
+        DepartureRow other = row(departure("2", 200, 200));
+        int[] counts = diff(Arrays.asList(before, other), Arrays.asList(after, other));
+        assertThat("only the delayed row changed", counts, is(new int[] {0, 0, 0, 1}));
+    }
+
+    @Test
+    public void test_reorder() {
+        DepartureRow first = row(departure("1", 100, 100));
+        DepartureRow second = row(departure("2", 200, 200));
+        DepartureRow delayed = row(departure("1", 100, 250));
+
+        // The first departure is delayed past the second one
+        int[] counts = diff(Arrays.asList(first, second), Arrays.asList(second, delayed));
+        assertThat("the rows were moved, not replaced", counts, is(new int[] {0, 0, 1, 1}));
+    }
+
+    @Test
+    public void test_unchanged() {
+        List<DepartureRow> before = Arrays.asList(row(departure("1", 100, 100)), row(departure("2", 200, 200)));
+        List<DepartureRow> after = Arrays.asList(row(departure("1", 100, 100)), row(departure("2", 200, 200)));
+
+        assertThat(diff(before, after), is(new int[] {0, 0, 0, 0}));
+    }
+
+    @Test
+    public void test_rowStateChange() {
+        Departure departure = departure("1", 100, 100);
+        DepartureRow before = row(departure);
+
+        assertThat(DIFF_CALLBACK.areContentsTheSame(before, new DepartureRow(departure, true, false, false)), is(false));
+        assertThat(DIFF_CALLBACK.areContentsTheSame(before, new DepartureRow(departure, false, true, false)), is(false));
+        assertThat(DIFF_CALLBACK.areContentsTheSame(before, new DepartureRow(departure, false, false, true)), is(false));
+    }
+
+    @Test
+    public void test_differentTrips() {
+        assertThat(DIFF_CALLBACK.areItemsTheSame(row(departure("1", 100, 100)), row(departure("2", 100, 100))), is(false));
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.sjakthol.stoptimes.activity.departures;
+
+import org.junit.Test;
+
+import static io.github.sjakthol.stoptimes.activity.departures.RefreshScheduler.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RefreshSchedulerTest {
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void test_defaultDelayWithoutDepartures() throws Exception {
+        RefreshScheduler scheduler = new RefreshScheduler();
+        assertThat(scheduler.getDelay(NOW, false), is(DEFAULT_DELAY_MILLIS));
+
+        scheduler.onSuccess(-1, -1);
+        assertThat(scheduler.getDelay(NOW, false), is(DEFAULT_DELAY_MILLIS));
+    }
+
+    @Test
+    public void test_fastDelayWhenRealtimeDepartureIsDue() throws Exception {
+        RefreshScheduler scheduler = new RefreshScheduler();
+        scheduler.onSuccess(NOW + 60000, NOW + 2 * 60000);
+        assertThat(scheduler.getDelay(NOW, false), is(FAST_DELAY_MILLIS));
+    }
+
+    @Test
+    public void test_defaultDelayWhenScheduledDepartureIsDue() throws Exception {
+        RefreshScheduler scheduler = new RefreshScheduler();
+        scheduler.onSuccess(NOW + 60000, -1);
+        assertThat(scheduler.getDelay(NOW, false), is(DEFAULT_DELAY_MILLIS));
+    }
+
+    @Test
+    public void test_slowDelayWhenDepartureIsFarAway() throws Exception {
+        RefreshScheduler scheduler = new RefreshScheduler();
+        scheduler.onSuccess(NOW + 9 * 60000, NOW + 9 * 60000);
+        assertThat(scheduler.getDelay(NOW, false), is(2 * 60000L));
+
+        scheduler.onSuccess(NOW + 60 * 60000, -1);
+        assertThat(scheduler.getDelay(NOW, false), is(MAX_DELAY_MILLIS));
+    }
+
+    @Test
+    public void test_backoffAfterFailures() throws Exception {
+        RefreshScheduler scheduler = new RefreshScheduler();
+        scheduler.onSuccess(NOW + 60000, NOW + 60000);
+
+        scheduler.onFailure();
+        assertThat(scheduler.getDelay(NOW, false), is(ERROR_DELAY_MILLIS));
+        scheduler.onFailure();
+        assertThat(scheduler.getDelay(NOW, false), is(2 * ERROR_DELAY_MILLIS));
+        scheduler.onFailure();
+        assertThat(scheduler.getDelay(NOW, false), is(4 * ERROR_DELAY_MILLIS));
+
+        for (int i = 0; i < 100; i++) {
+            scheduler.onFailure();
+        }
+        assertThat(scheduler.getDelay(NOW, false), is(MAX_DELAY_MILLIS));
+
+        scheduler.onSuccess(NOW + 60000, NOW + 60000);
+        assertThat(scheduler.getDelay(NOW, false), is(FAST_DELAY_MILLIS));
+    }
+
+    @Test
+    public void test_meteredConnectionSlowsDown() throws Exception {
+        RefreshScheduler scheduler = new RefreshScheduler();
+        scheduler.onSuccess(NOW + 60000, NOW + 60000);
+        assertThat(scheduler.getDelay(NOW, true), is(METERED_MIN_DELAY_MILLIS));
+
+        scheduler.onSuccess(NOW + 60 * 60000, -1);
+        assertThat(scheduler.getDelay(NOW, true), is(MAX_DELAY_MILLIS));
+    }
+}
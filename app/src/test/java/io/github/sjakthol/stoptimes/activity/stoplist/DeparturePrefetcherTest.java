@@ -0,0 +1,26 @@
+package io.github.sjakthol.stoptimes.activity.stoplist;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DeparturePrefetcherTest {
+    @Test
+    public void test_takeBudget() throws Exception {
+        DeparturePrefetcher prefetcher = new DeparturePrefetcher(5, 8, 1000);
+
+        assertThat("budget available", prefetcher.takeBudget(5, 0), is(5));
+        assertThat("rest of the budget", prefetcher.takeBudget(5, 10), is(3));
+        assertThat("budget exhausted", prefetcher.takeBudget(5, 999), is(0));
+        assertThat("budget refilled", prefetcher.takeBudget(5, 1000), is(5));
+    }
+
+    @Test
+    public void test_takeBudgetNothingWanted() throws Exception {
+        DeparturePrefetcher prefetcher = new DeparturePrefetcher(5, 8, 1000);
+
+        assertThat(prefetcher.takeBudget(0, 0), is(0));
+        assertThat("nothing was used", prefetcher.takeBudget(8, 1), is(8));
+    }
+}
@@ -0,0 +1,35 @@
+package io.github.sjakthol.stoptimes.db;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StopSearchIndexTest {
+    @Test
+    public void test_buildMatchQuery() throws Exception {
+        assertThat(StopSearchIndex.buildMatchQuery("kamppi"), is("kamppi*"));
+        assertThat(StopSearchIndex.buildMatchQuery("Itä-Pasila"), is("itä* pasila*"));
+        assertThat(StopSearchIndex.buildMatchQuery("  E1058 "), is("e1058*"));
+        assertThat(StopSearchIndex.buildMatchQuery("\"kamppi\" OR *"), is("kamppi* or*"));
+        assertThat(StopSearchIndex.buildMatchQuery("-"), is(""));
+    }
+
+    @Test
+    public void test_matches() throws Exception {
+        assertThat(StopSearchIndex.matches("kamp", "Kamppi 2", "Ki1518"), is(true));
+        assertThat(StopSearchIndex.matches("kamppi 2", "Kamppi 2", "Ki1518"), is(true));
+        assertThat(StopSearchIndex.matches("ki15", "Kamppi 2", "Ki1518"), is(true));
+        assertThat(StopSearchIndex.matches("pasila itä", "Itä-Pasila", "H0001"), is(true));
+        assertThat(StopSearchIndex.matches("ampp", "Kamppi", "0013"), is(false));
+        assertThat(StopSearchIndex.matches("kamppi 3", "Kamppi 2", "Ki1518"), is(false));
+    }
+
+    @Test
+    public void test_rank() throws Exception {
+        assertThat(StopSearchIndex.rank("kamppi", "Kamppi", "0013"), is(0));
+        assertThat(StopSearchIndex.rank("e1058", "Leppävaara", "E1058"), is(0));
+        assertThat(StopSearchIndex.rank("kamp", "Kamppi", "0013"), is(1));
+        assertThat(StopSearchIndex.rank("pasila", "Itä-Pasila", "H0001"), is(2));
+    }
+}
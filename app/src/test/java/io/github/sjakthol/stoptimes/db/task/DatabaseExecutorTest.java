@@ -0,0 +1,101 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DatabaseExecutorTest {
+    private DatabaseExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mExecutor = new DatabaseExecutor("test", 2, Executors.defaultThreadFactory());
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    private static Runnable await(final CountDownLatch start, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void test_runsConcurrently() throws Exception {
+        // Both tasks wait for each other so they only finish if they run at the same time
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue("tasks ran concurrently", done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_recordsWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        mExecutor.execute(await(release, done));
+        mExecutor.execute(await(release, done));
+        mExecutor.execute(await(release, done));
+
+        Thread.sleep(50);
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertThat(mExecutor.getStartedCount(), is(3L));
+        assertTrue("queued task waited", mExecutor.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue("total includes max", mExecutor.getTotalWaitNanos() >= mExecutor.getMaxWaitNanos());
+    }
+
+    @Test
+    public void test_purgeDropsCancelled() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        mExecutor.execute(await(release, done));
+        mExecutor.execute(await(release, done));
+
+        FutureTask<Void> queued = new FutureTask<>(await(release, done), null);
+        mExecutor.execute(queued);
+        assertThat(mExecutor.getQueue().size(), is(1));
+
+        queued.cancel(false);
+        mExecutor.purge();
+        assertThat("cancelled task dropped", mExecutor.getQueue().size(), is(0));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
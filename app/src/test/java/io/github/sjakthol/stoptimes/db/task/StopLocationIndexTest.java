@@ -0,0 +1,75 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class StopLocationIndexTest {
+    @Test
+    public void test_nearestMatchesFullScan() throws Exception {
+        Random random = new Random(42);
+        int size = 2000;
+
+        final double[] lat = new double[size];
+        final double[] lon = new double[size];
+        long[] rowIds = new long[size];
+        int[] flags = new int[size];
+        for (int i = 0; i < size; i++) {
+            lat[i] = 60 + random.nextDouble() / 2;
+            lon[i] = 24.5 + random.nextDouble();
+            rowIds[i] = i;
+            flags[i] = i % 10 == 0 ? StopLocationIndex.FLAG_CITYBIKE : 0;
+        }
+
+        // The index reorders the arrays; keep the originals for the full scan
+        StopLocationIndex index = new StopLocationIndex(lat.clone(), lon.clone(), rowIds, flags.clone());
+
+        for (int q = 0; q < 50; q++) {
+            final double qLat = 60 + random.nextDouble() / 2;
+            final double qLon = 24.5 + random.nextDouble();
+
+            Integer[] all = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            Arrays.sort(all, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(dist(lat[a], lon[a], qLat, qLon), dist(lat[b], lon[b], qLat, qLon));
+                }
+            });
+
+            int[] nearest = index.nearest(qLat, qLon, 10, true);
+            assertThat(nearest.length, is(10));
+            for (int i = 0; i < nearest.length; i++) {
+                assertThat("Result " + i + " matches full scan", index.getRowId(nearest[i]), is((long) all[i]));
+            }
+        }
+    }
+
+    @Test
+    public void test_nearestExcludesCitybikes() throws Exception {
+        double[] lat = {60.0, 60.1, 60.2};
+        double[] lon = {24.0, 24.0, 24.0};
+        long[] rowIds = {1, 2, 3};
+        int[] flags = {StopLocationIndex.FLAG_CITYBIKE, StopLocationIndex.FLAG_STATION, 0};
+
+        StopLocationIndex index = new StopLocationIndex(lat, lon, rowIds, flags);
+        int[] nearest = index.nearest(60.0, 24.0, 5, false);
+
+        assertThat(nearest.length, is(2));
+        assertThat(index.getRowId(nearest[0]), is(2L));
+        assertThat(index.isStation(nearest[0]), is(true));
+        assertThat(index.getRowId(nearest[1]), is(3L));
+        assertThat(index.isStation(nearest[1]), is(false));
+    }
+
+    private static double dist(double lat1, double lon1, double lat2, double lon2) {
+        return (lat1 - lat2) * (lat1 - lat2) + (lon1 - lon2) * (lon1 - lon2);
+    }
+}
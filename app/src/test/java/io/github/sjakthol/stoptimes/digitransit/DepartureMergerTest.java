@@ -0,0 +1,95 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import io.github.sjakthol.stoptimes.digitransit.models.DepartureBuffer;
+import org.junit.Test;
+
+import java.util.Vector;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DepartureMergerTest {
+    private static final long DAY = 1500000000;
+
+    /**
+     * Build departures of the given trips; each trip is given as {trip, scheduled offset} or
+     * {trip, scheduled offset, realtime offset}.
+     */
+    private static Vector<Departure> departures(long[]... trips) {
+        DepartureBuffer buffer = new DepartureBuffer();
+        for (long[] trip : trips) {
+            long realtime = trip.length > 2 ? trip[2] : trip[1];
+            buffer.add("550", "3", "Itäkeskus", null, "HSL:" + trip[0], DAY, trip[1], realtime, true, false);
+        }
+
+        return buffer.toDepartures(true);
+    }
+
+    private static String trips(Vector<Departure> departures) {
+        StringBuilder res = new StringBuilder();
+        for (Departure departure : departures) {
+            res.append(departure.getRealtimeDeparture() - DAY).append(' ');
+        }
+
+        return res.toString().trim();
+    }
+
+    @Test
+    public void test_freshReplacesKnownInWindow() {
+        Vector<Departure> known = departures(new long[] {1, 100}, new long[] {2, 200}, new long[] {3, 900});
+        Vector<Departure> fresh = departures(new long[] {1, 130}, new long[] {3, 950}, new long[] {4, 1000});
+
+        // Trip 2 disappeared from the window and trip 3 got a new estimate
+        Vector<Departure> merged = DepartureMerger.merge(known, fresh, DAY + 600, 10, DAY);
+        assertThat(trips(merged), is("130 950 1000"));
+    }
+
+    @Test
+    public void test_keepsKnownAfterWindow() {
+        Vector<Departure> known = departures(new long[] {1, 100}, new long[] {2, 700}, new long[] {3, 900});
+        Vector<Departure> fresh = departures(new long[] {1, 110}, new long[] {4, 1000});
+
+        Vector<Departure> merged = DepartureMerger.merge(known, fresh, DAY + 600, 10, DAY);
+        assertThat(trips(merged), is("110 700 900 1000"));
+    }
+
+    @Test
+    public void test_keepsKnownDelayedOutOfWindow() {
+        // Trip 2 is scheduled after the window but was estimated to leave inside it
+        Vector<Departure> known = departures(new long[] {1, 100}, new long[] {2, 650, 500}, new long[] {3, 900});
+        Vector<Departure> fresh = departures(new long[] {1, 110}, new long[] {4, 1000});
+
+        // The delay moved trip 2 out of the window and the poll did not return it
+        Vector<Departure> merged = DepartureMerger.merge(known, fresh, DAY + 600, 10, DAY);
+        assertThat(trips(merged), is("110 500 900 1000"));
+    }
+
+    @Test
+    public void test_dropsKnownScheduledInWindow() {
+        // Trip 2 is scheduled inside the window, so the poll would have returned it
+        Vector<Departure> known = departures(new long[] {1, 100}, new long[] {2, 400, 700}, new long[] {3, 900});
+        Vector<Departure> fresh = departures(new long[] {1, 110}, new long[] {4, 1000});
+
+        Vector<Departure> merged = DepartureMerger.merge(known, fresh, DAY + 600, 10, DAY);
+        assertThat(trips(merged), is("110 900 1000"));
+    }
+
+    @Test
+    public void test_dropsDepartedAndCaps() {
+        Vector<Departure> known = departures(new long[] {1, 700}, new long[] {2, 800}, new long[] {3, 900});
+        Vector<Departure> fresh = departures(new long[] {3, 900}, new long[] {4, 1000}, new long[] {5, 1100});
+
+        Vector<Departure> merged = DepartureMerger.merge(known, fresh, DAY + 600, 3, DAY + 750);
+        assertThat(trips(merged), is("800 900 1000"));
+    }
+
+    @Test
+    public void test_countAfterAndLastScheduled() {
+        Vector<Departure> known = departures(new long[] {1, 100}, new long[] {2, 700}, new long[] {3, 900});
+        assertThat(DepartureMerger.countAfter(known, DAY + 600), is(2));
+        assertThat(DepartureMerger.countAfter(departures(new long[] {1, 500, 700}), DAY + 600), is(0));
+        assertThat(DepartureMerger.lastScheduledDeparture(known), is(DAY + 900));
+        assertThat(DepartureMerger.lastScheduledDeparture(new Vector<Departure>()), is(0L));
+    }
+}
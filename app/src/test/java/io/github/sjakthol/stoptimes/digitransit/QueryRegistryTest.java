@@ -0,0 +1,77 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+
+public class QueryRegistryTest {
+    @After
+    public void tearDown() {
+        QueryRegistry.reset();
+    }
+
+    @Test
+    public void test_minify() {
+        String query =
+            "query ($stop: String!, $departures: Int) {\n" +
+            "  stop(id: $stop) {\n" +
+            "    stoptimesWithoutPatterns(numberOfDepartures: $departures) {\n" +
+            "      realtime,\n" +
+            "      # a comment\n" +
+            "      stop { platformCode },\n" +
+            "      trip { route { shortName, type } tripHeadsign }\n" +
+            "    }\n" +
+            "  }\n" +
+            "}";
+
+        assertThat(QueryRegistry.minify(query), is(
+            "query($stop:String!$departures:Int){stop(id:$stop){stoptimesWithoutPatterns(numberOfDepartures:" +
+            "$departures){realtime stop{platformCode}trip{route{shortName type}tripHeadsign}}}}"));
+    }
+
+    @Test
+    public void test_minifyKeepsStrings() {
+        assertThat(QueryRegistry.minify("{ stop(id: \"HSL:1, \\\"2\\\"\") { name } }"),
+            is("{stop(id:\"HSL:1, \\\"2\\\"\"){name}}"));
+    }
+
+    @Test
+    public void test_hash() {
+        QueryRegistry.PersistedQuery a = QueryRegistry.register("test", "{ stops { name } }");
+        QueryRegistry.PersistedQuery b = QueryRegistry.register("test", "{\n  stops {\n    name\n  }\n}");
+        QueryRegistry.PersistedQuery c = QueryRegistry.register("test", "{ stations { name } }");
+
+        assertThat("hash is hex encoded SHA-256", a.getHash().matches("[0-9a-f]{64}"), is(true));
+        assertThat("formatting does not change the hash", b.getHash(), is(a.getHash()));
+        assertThat("different queries have different hashes", c.getHash(), is(not(a.getHash())));
+    }
+
+    @Test
+    public void test_disabledByDefault() {
+        QueryRegistry.PersistedQuery query = QueryRegistry.register("test", "{ stops { name } }");
+        assertThat("persisted queries are off", QueryRegistry.isPersistedQueriesEnabled(), is(false));
+
+        QueryRegistry.onQuerySucceeded(query, true);
+        assertThat("text is always sent", QueryRegistry.shouldSendText(query), is(true));
+    }
+
+    @Test
+    public void test_sendTextUntilKnown() {
+        QueryRegistry.setPersistedQueriesEnabled(true);
+        QueryRegistry.PersistedQuery query = QueryRegistry.register("test", "{ stops { name } }");
+        assertThat("text is sent first", QueryRegistry.shouldSendText(query), is(true));
+
+        QueryRegistry.onQuerySucceeded(query, true);
+        assertThat("hash is sent once known", QueryRegistry.shouldSendText(query), is(false));
+
+        QueryRegistry.onHashRejected(query);
+        assertThat("text is sent after rejection", QueryRegistry.shouldSendText(query), is(true));
+        assertThat("persisted queries are disabled", QueryRegistry.isPersistedQueriesEnabled(), is(false));
+
+        QueryRegistry.onQuerySucceeded(query, true);
+        assertThat("text is sent while disabled", QueryRegistry.shouldSendText(query), is(true));
+    }
+}
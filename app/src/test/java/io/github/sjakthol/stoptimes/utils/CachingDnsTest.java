@@ -0,0 +1,75 @@
+package io.github.sjakthol.stoptimes.utils;
+
+import okhttp3.Dns;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CachingDnsTest {
+    private static class CountingDns implements Dns {
+        int lookups = 0;
+        boolean fail = false;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups++;
+            if (fail) {
+                throw new UnknownHostException(hostname);
+            }
+
+            return Collections.singletonList(InetAddress.getByAddress(hostname, new byte[] { 127, 0, 0, 1 }));
+        }
+    }
+
+    @Test
+    public void test_cachesWithinTtl() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 1000);
+
+        List<InetAddress> first = dns.lookup("api.example.com", 0);
+        assertThat(dns.lookup("api.example.com", 999), is(first));
+        assertThat(delegate.lookups, is(1));
+
+        dns.lookup("api.example.com", 1000);
+        assertThat(delegate.lookups, is(2));
+
+        dns.lookup("other.example.com", 1000);
+        assertThat(delegate.lookups, is(3));
+    }
+
+    @Test
+    public void test_clear() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 1000);
+
+        dns.lookup("api.example.com", 0);
+        dns.clear();
+        dns.lookup("api.example.com", 0);
+        assertThat(delegate.lookups, is(2));
+    }
+
+    @Test
+    public void test_failuresNotCached() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 1000);
+
+        delegate.fail = true;
+        try {
+            dns.lookup("api.example.com", 0);
+            fail("Lookup should have failed");
+        } catch (UnknownHostException e) {
+            // expected
+        }
+
+        delegate.fail = false;
+        dns.lookup("api.example.com", 0);
+        assertThat(delegate.lookups, is(2));
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.sjakthol.stoptimes.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MetricsTest {
+    @Before
+    public void setUp() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void test_count() {
+        assertThat(Metrics.getCount("a"), is(0L));
+
+        Metrics.count("a");
+        Metrics.count("a", 4);
+        Metrics.count("b");
+
+        assertThat(Metrics.getCount("a"), is(5L));
+        assertThat(Metrics.getCount("b"), is(1L));
+    }
+
+    @Test
+    public void test_histogram() {
+        for (int i = 1; i <= 100; i++) {
+            Metrics.recordSize("size", i);
+        }
+
+        Metrics.Histogram h = Metrics.getHistogram("size");
+        assertThat(h.getCount(), is(100L));
+        assertThat(h.getMean(), is(50L));
+        assertThat(h.getMax(), is(100L));
+
+        // 50 falls into the bucket [32, 63] and 90 and 99 into [64, 127]
+        assertThat(h.getPercentile(50), is(63L));
+        assertThat(h.getPercentile(90), is(100L));
+        assertThat(h.getPercentile(99), is(100L));
+    }
+
+    @Test
+    public void test_histogramZero() {
+        Metrics.recordSize("size", 0);
+        Metrics.recordSize("size", -1);
+
+        Metrics.Histogram h = Metrics.getHistogram("size");
+        assertThat(h.getCount(), is(2L));
+        assertThat(h.getPercentile(99), is(0L));
+        assertThat(h.getMax(), is(0L));
+    }
+
+    @Test
+    public void test_section() throws Exception {
+        long start = Metrics.beginSection("section");
+        Thread.sleep(2);
+        Metrics.endSection("section", start);
+
+        Metrics.Histogram h = Metrics.getHistogram("section");
+        assertThat(h, is(notNullValue()));
+        assertThat(h.getCount(), is(1L));
+        assertTrue("duration is recorded in microseconds", h.getMax() >= 2000);
+    }
+
+    @Test
+    public void test_dump() {
+        Metrics.count("http.stops.errors");
+        Metrics.recordDuration("task.Test.run", 5000);
+
+        StringWriter out = new StringWriter();
+        Metrics.dump(new PrintWriter(out));
+
+        assertThat(out.toString(), containsString("http.stops.errors: 1"));
+        assertThat(out.toString(), containsString("task.Test.run: count 1, mean 5 us"));
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.sjakthol.stoptimes.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Recorded Digitransit API responses for the benchmarks.
+ */
+public final class Payloads {
+    /**
+     * The approximate number of stops and stations in the HSL feed.
+     */
+    public static final int HSL_STOP_COUNT = 8500;
+
+    private Payloads() {}
+
+    /**
+     * Read a response from the benchmark resources. The responses live in benchmark/payloads,
+     * which :macrobenchmark also packages as assets.
+     *
+     * @param name the name of the resource
+     * @return the response body
+     * @throws IOException if the resource cannot be read
+     */
+    public static String read(String name) throws IOException {
+        InputStream in = Payloads.class.getResourceAsStream("/" + name);
+        if (in == null) {
+            throw new IOException("No such payload: " + name);
+        }
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get the departures of a busy stop.
+     *
+     * @return the departure list response
+     * @throws IOException if the resource cannot be read
+     * @throws JSONException if the resource is not valid JSON
+     */
+    public static JSONObject departures() throws IOException, JSONException {
+        return new JSONObject(read("departures.json"));
+    }
+
+    /**
+     * Get the raw body of the departure list response.
+     *
+     * @return the response body as UTF-8
+     * @throws IOException if the resource cannot be read
+     */
+    public static byte[] departuresBody() throws IOException {
+        return read("departures.json").getBytes("UTF-8");
+    }
+
+    /**
+     * Get the raw body of a stop list response of the size of the HSL feed.
+     *
+     * @return the response body as UTF-8
+     * @throws IOException if the resource cannot be read
+     * @throws JSONException if the resource is not valid JSON
+     */
+    public static byte[] stopListBody() throws IOException, JSONException {
+        JSONObject data = new JSONObject().put("stops", stops());
+        return new JSONObject().put("data", data).toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Get a stop list of the size of the HSL feed. The recorded sample is repeated with unique
+     * IDs until the list has HSL_STOP_COUNT stops.
+     *
+     * The list is synthetic on purpose. A recording of the whole feed is megabytes of JSON
+     * that goes stale whenever HSL edits its stops. The parsing cost depends on how many
+     * records there are and which fields they set, not on the values. The sample has stops
+     * and stations, with and without a platform code and a parent station, so the synthetic
+     * list exercises every branch of the parser.
+     *
+     * @return the stops of a stop list response
+     * @throws IOException if the resource cannot be read
+     * @throws JSONException if the resource is not valid JSON
+     */
+    public static JSONArray stops() throws IOException, JSONException {
+        String sample = read("stops.json");
+        JSONArray recorded = new JSONObject(sample).getJSONObject("data").getJSONArray("stops");
+
+        JSONArray stops = new JSONArray();
+        for (int i = 0; stops.length() < HSL_STOP_COUNT; i++) {
+            JSONObject stop = recorded.getJSONObject(i % recorded.length());
+            JSONObject copy = new JSONObject(stop.toString());
+            copy.put("gtfsId", stop.getString("gtfsId") + "_" + i);
+            stops.put(copy);
+        }
+
+        return stops;
+    }
+}
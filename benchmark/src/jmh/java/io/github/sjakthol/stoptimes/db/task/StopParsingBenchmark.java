@@ -0,0 +1,58 @@
+package io.github.sjakthol.stoptimes.db.task;
+
+import android.util.JsonReader;
+import io.github.sjakthol.stoptimes.benchmark.Payloads;
+import io.github.sjakthol.stoptimes.digitransit.models.Stop;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Vector;
+
+/**
+ * Benchmarks for parsing the stop list during a database update. readStopList is what the
+ * update runs; parseStopList and stopFromJson measure the JSONObject based parser.
+ */
+@State(Scope.Benchmark)
+public class StopParsingBenchmark {
+    private byte[] mBody;
+    private JSONArray mStops;
+    private JSONObject mStop;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mBody = Payloads.stopListBody();
+        mStops = Payloads.stops();
+        mStop = mStops.getJSONObject(0);
+    }
+
+    @Benchmark
+    public void readStopList(final Blackhole bh) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(mBody), "UTF-8"));
+        UpdateDatabaseTask.readStopList(reader, new UpdateDatabaseTask.StopSink() {
+            @Override
+            public void write(String table, Stop stop) {
+                // StopWriter fingerprints every stop before it touches the database
+                bh.consume(StopWriter.fingerprint(stop));
+            }
+        });
+    }
+
+    @Benchmark
+    public Vector<Stop> parseStopList() throws JSONException {
+        return UpdateDatabaseTask.parseStopList(mStops);
+    }
+
+    @Benchmark
+    public Stop stopFromJson() throws JSONException {
+        return Stop.fromJson(mStop);
+    }
+}
@@ -0,0 +1,50 @@
+package io.github.sjakthol.stoptimes.digitransit;
+
+import io.github.sjakthol.stoptimes.benchmark.Payloads;
+import io.github.sjakthol.stoptimes.digitransit.models.Departure;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Vector;
+
+/**
+ * Benchmarks for parsing departure list responses. parseStream is what DepartureListRequest
+ * runs on the network thread; parseDepartureList and departureFromJsonObject measure the
+ * JSONObject based parser.
+ */
+@State(Scope.Benchmark)
+public class DepartureParsingBenchmark {
+    private byte[] mBody;
+    private JSONObject mResponse;
+    private JSONObject mDeparture;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        mBody = Payloads.departuresBody();
+        mResponse = Payloads.departures();
+        mDeparture = mResponse.getJSONObject("data").getJSONObject("stop")
+            .getJSONArray("stoptimesWithoutPatterns").getJSONObject(0);
+    }
+
+    @Benchmark
+    public Vector<Departure> parseStream() throws IOException {
+        return DepartureListRequest.parse(new InputStreamReader(new ByteArrayInputStream(mBody), "UTF-8"), false);
+    }
+
+    @Benchmark
+    public Vector<Departure> parseDepartureList() throws JSONException {
+        return DigitransitApi.parseDepartureList(mResponse, false);
+    }
+
+    @Benchmark
+    public Departure departureFromJsonObject() throws JSONException {
+        return Departure.fromJsonObject(mDeparture);
+    }
+}
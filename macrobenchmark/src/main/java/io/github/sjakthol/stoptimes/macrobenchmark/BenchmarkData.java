@@ -0,0 +1,216 @@
+package io.github.sjakthol.stoptimes.macrobenchmark;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.test.InstrumentationRegistry;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import io.github.sjakthol.stoptimes.R;
+import io.github.sjakthol.stoptimes.activity.departures.DepartureListActivity;
+import io.github.sjakthol.stoptimes.db.StopListDatabaseHelper;
+import io.github.sjakthol.stoptimes.db.task.UpdateDatabaseTask;
+import io.github.sjakthol.stoptimes.db.task.UpdateFavoriteStatusTask;
+import io.github.sjakthol.stoptimes.utils.AsyncTaskResult;
+import io.github.sjakthol.stoptimes.utils.Helpers;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Puts the app into a known state for the benchmarks: an HSL-sized stop database loaded from
+ * recorded responses, a list of favorites to scroll and departures served by a local API.
+ */
+final class BenchmarkData {
+    /**
+     * The approximate number of stops in the HSL feed.
+     */
+    private static final int HSL_STOP_COUNT = 8500;
+
+    /**
+     * The number of favorites shown in the stop list.
+     */
+    private static final int NUM_FAVORITES = 100;
+
+    /**
+     * The number of departures shown in the departure list.
+     */
+    private static final String NUM_DEPARTURES = "30";
+
+    private static final long LIST_TIMEOUT_SECONDS = 30;
+
+    private static MockApi sApi;
+
+    private BenchmarkData() {}
+
+    /**
+     * Start the local API and fill the stop database. Call this before launching activities.
+     *
+     * @throws Exception if the data cannot be set up
+     */
+    static void setUp() throws Exception {
+        Context ctx = InstrumentationRegistry.getTargetContext();
+        Context assets = InstrumentationRegistry.getContext();
+
+        JSONObject stops = buildStopList(read(assets, "stops.json"));
+        sApi = new MockApi(stops.toString(), read(assets, "departures.json"));
+        sApi.start();
+
+        StopListDatabaseHelper helper = StopListDatabaseHelper.getInstance(ctx);
+        AsyncTaskResult<Void> res = new UpdateDatabaseTask(ctx, helper).execute().get();
+        if (!res.isSuccess()) {
+            throw new IllegalStateException("Stop database update failed", res.getError());
+        }
+
+        JSONArray list = stops.getJSONObject("data").getJSONArray("stops");
+        for (int i = 0; i < NUM_FAVORITES; i++) {
+            new UpdateFavoriteStatusTask(helper) {}.execute(list.getJSONObject(i).getString("gtfsId"), true).get();
+        }
+
+        // Open the favorites without the database update screen or location prompts
+        Helpers.setUseLocation(ctx, false);
+        PreferenceManager.getDefaultSharedPreferences(ctx).edit()
+            .putLong(ctx.getString(R.string.stopdb_last_update), System.currentTimeMillis())
+            .putString(ctx.getString(R.string.pref_key_departures_num_results), NUM_DEPARTURES)
+            .commit();
+    }
+
+    /**
+     * Stop the local API.
+     *
+     * @throws IOException if the API cannot be stopped
+     */
+    static void tearDown() throws IOException {
+        if (sApi != null) {
+            sApi.shutdown();
+            sApi = null;
+        }
+    }
+
+    /**
+     * Get an intent that opens the departures of the recorded stop.
+     *
+     * @return the intent
+     */
+    static Intent departureListIntent() {
+        Intent intent = new Intent(InstrumentationRegistry.getTargetContext(), DepartureListActivity.class);
+        intent.putExtra(DepartureListActivity.EXTRA_STOP_ID, "HSL:1020453");
+        intent.putExtra(DepartureListActivity.EXTRA_STOP_TYPE, "STOP");
+        intent.putExtra(DepartureListActivity.EXTRA_STOP_NAME, "Rautatientori");
+        return intent;
+    }
+
+    /**
+     * Wait until a frame with items in the given list has been drawn.
+     *
+     * @param activity the activity that shows the list
+     * @param listId the ID of the RecyclerView
+     * @return the time of the frame in SystemClock.elapsedRealtime() milliseconds
+     * @throws InterruptedException if interrupted while waiting
+     * @throws TimeoutException if no such frame is drawn in time
+     */
+    static long awaitListDrawn(final Activity activity, final int listId)
+        throws InterruptedException, TimeoutException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long[] drawn = new long[1];
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                final View decor = activity.getWindow().getDecorView();
+                if (hasItems(activity, listId)) {
+                    // Already on screen, e.g. when the response arrived during launch
+                    drawn[0] = SystemClock.elapsedRealtime();
+                    latch.countDown();
+                    return;
+                }
+
+                decor.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+                    @Override
+                    public void onDraw() {
+                        if (latch.getCount() == 0 || !hasItems(activity, listId)) {
+                            return;
+                        }
+
+                        drawn[0] = SystemClock.elapsedRealtime();
+                        latch.countDown();
+
+                        // Listeners cannot be removed while they are being called
+                        final ViewTreeObserver.OnDrawListener listener = this;
+                        decor.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                decor.getViewTreeObserver().removeOnDrawListener(listener);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+
+        if (!latch.await(LIST_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            throw new TimeoutException("List was not shown");
+        }
+
+        return drawn[0];
+    }
+
+    private static boolean hasItems(Activity activity, int listId) {
+        RecyclerView list = activity.findViewById(listId);
+        return list != null && list.getChildCount() > 0;
+    }
+
+    /**
+     * Repeat the recorded stops with unique IDs until the list has HSL_STOP_COUNT stops. See
+     * Payloads.stops() in :benchmark for why the list is built from a sample instead of being
+     * a recording of the whole feed.
+     */
+    private static JSONObject buildStopList(String recorded) throws JSONException {
+        JSONArray sample = new JSONObject(recorded).getJSONObject("data").getJSONArray("stops");
+
+        JSONArray stops = new JSONArray();
+        JSONArray stations = new JSONArray();
+        for (int i = 0; stops.length() + stations.length() < HSL_STOP_COUNT; i++) {
+            JSONObject stop = new JSONObject(sample.getJSONObject(i % sample.length()).toString());
+            stop.put("gtfsId", stop.getString("gtfsId") + "_" + i);
+            if (stop.getString("locationType").equals("STATION")) {
+                stations.put(stop);
+            } else {
+                stops.put(stop);
+            }
+        }
+
+        JSONObject data = new JSONObject();
+        data.put("stops", stops);
+        data.put("stations", stations);
+        data.put("bikeRentalStations", new JSONArray());
+        return new JSONObject().put("data", data);
+    }
+
+    private static String read(Context ctx, String asset) throws IOException {
+        InputStream in = ctx.getAssets().open(asset);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.sjakthol.stoptimes.macrobenchmark;
+
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The frame statistics that dumpsys gfxinfo collects for the app.
+ */
+final class FrameStats {
+    private static final Pattern TOTAL = Pattern.compile("Total frames rendered: (\\d+)");
+    private static final Pattern JANKY = Pattern.compile("Janky frames: (\\d+)");
+    private static final Pattern PERCENTILE = Pattern.compile("(50|90|99)th percentile: (\\d+)ms");
+
+    private int mTotal;
+    private int mJanky;
+    private int mP50;
+    private int mP90;
+    private int mP99;
+
+    private FrameStats() {}
+
+    /**
+     * Clear the frame statistics of the app.
+     *
+     * @throws IOException if dumpsys cannot be run
+     */
+    static void reset() throws IOException {
+        dumpsys("reset").close();
+    }
+
+    /**
+     * Get the frame statistics of the app since the last reset.
+     *
+     * @return the statistics
+     * @throws IOException if dumpsys cannot be run
+     */
+    static FrameStats collect() throws IOException {
+        FrameStats stats = new FrameStats();
+        BufferedReader reader = dumpsys("");
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher m = TOTAL.matcher(line);
+                if (m.find()) {
+                    stats.mTotal = Integer.parseInt(m.group(1));
+                }
+
+                m = JANKY.matcher(line);
+                if (m.find()) {
+                    stats.mJanky = Integer.parseInt(m.group(1));
+                }
+
+                m = PERCENTILE.matcher(line);
+                if (m.find()) {
+                    int value = Integer.parseInt(m.group(2));
+                    switch (m.group(1)) {
+                        case "50":
+                            stats.mP50 = value;
+                            break;
+                        case "90":
+                            stats.mP90 = value;
+                            break;
+                        default:
+                            stats.mP99 = value;
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return stats;
+    }
+
+    private static BufferedReader dumpsys(String args) {
+        String pkg = InstrumentationRegistry.getTargetContext().getPackageName();
+        ParcelFileDescriptor out = InstrumentationRegistry.getInstrumentation().getUiAutomation()
+            .executeShellCommand("dumpsys gfxinfo " + pkg + " " + args);
+
+        return new BufferedReader(new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(out)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d of %d frames janky, frame time p50 %d ms, p90 %d ms, p99 %d ms",
+            mJanky, mTotal, mP50, mP90, mP99);
+    }
+}
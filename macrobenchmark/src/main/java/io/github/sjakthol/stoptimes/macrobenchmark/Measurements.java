@@ -0,0 +1,75 @@
+package io.github.sjakthol.stoptimes.macrobenchmark;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import io.github.sjakthol.stoptimes.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects the samples of a benchmark and reports a summary of them.
+ */
+final class Measurements {
+    private static final String TAG = Measurements.class.getSimpleName();
+
+    /**
+     * Reported as in progress so that the runner does not take the status for a test result.
+     */
+    private static final int STATUS_IN_PROGRESS = 2;
+
+    private final String mName;
+    private final String mUnit;
+    private final List<Long> mSamples = new ArrayList<>();
+
+    /**
+     * Create a new set of measurements.
+     *
+     * @param name the name of the benchmark
+     * @param unit the unit of the samples
+     */
+    Measurements(String name, String unit) {
+        mName = name;
+        mUnit = unit;
+    }
+
+    /**
+     * Add a sample.
+     *
+     * @param value the sample
+     */
+    void add(long value) {
+        mSamples.add(value);
+    }
+
+    /**
+     * Report the median, minimum and maximum of the samples to the log and the instrumentation
+     * output (am instrument -r).
+     */
+    void report() {
+        List<Long> sorted = new ArrayList<>(mSamples);
+        Collections.sort(sorted);
+
+        String summary = String.format("median %d %s, min %d %s, max %d %s (%d samples)",
+            sorted.get(sorted.size() / 2), mUnit,
+            sorted.get(0), mUnit,
+            sorted.get(sorted.size() - 1), mUnit,
+            sorted.size());
+        report(mName, summary);
+    }
+
+    /**
+     * Report a benchmark result to the log and the instrumentation output.
+     *
+     * @param name the name of the benchmark
+     * @param summary the result
+     */
+    static void report(String name, String summary) {
+        Logger.i(TAG, "%s: %s", name, summary);
+
+        Bundle status = new Bundle();
+        status.putString(name, summary);
+        InstrumentationRegistry.getInstrumentation().sendStatus(STATUS_IN_PROGRESS, status);
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.sjakthol.stoptimes.macrobenchmark;
+
+import io.github.sjakthol.stoptimes.digitransit.DigitransitApi;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import java.io.IOException;
+
+/**
+ * A local Digitransit API that replays recorded responses. Stop list queries get the stop
+ * list and every other query gets the departures of a busy stop.
+ */
+final class MockApi {
+    private final MockWebServer mServer = new MockWebServer();
+    private final String mStops;
+    private final String mDepartures;
+
+    /**
+     * Create a new API.
+     *
+     * @param stops the stop list response
+     * @param departures the departure list response
+     */
+    MockApi(String stops, String departures) {
+        mStops = stops;
+        mDepartures = departures;
+    }
+
+    /**
+     * Start the server and point the app to it.
+     *
+     * @throws IOException if the server cannot be started
+     */
+    void start() throws IOException {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                // The stop list query is always sent in full
+                boolean stops = request.getBody().readUtf8().contains("bikeRentalStations");
+                return new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(stops ? mStops : mDepartures);
+            }
+        });
+
+        mServer.start();
+        DigitransitApi.API_GRAPHQL = mServer.url("/graphql").toString();
+    }
+
+    /**
+     * Stop the server.
+     *
+     * @throws IOException if the server cannot be stopped
+     */
+    void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+}
@@ -0,0 +1,72 @@
+package io.github.sjakthol.stoptimes.macrobenchmark;
+
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.R;
+import io.github.sjakthol.stoptimes.activity.departures.DepartureListActivity;
+import io.github.sjakthol.stoptimes.activity.stoplist.StopListActivity;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.action.ViewActions.swipeDown;
+import static android.support.test.espresso.action.ViewActions.swipeUp;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+
+/**
+ * Measures jank while flinging through the favorite stops and the departures of a stop.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ScrollBenchmark {
+    private static final int SWIPES = 10;
+
+    @Rule
+    public ActivityTestRule<StopListActivity> mStopList =
+        new ActivityTestRule<>(StopListActivity.class, false, false);
+
+    @Rule
+    public ActivityTestRule<DepartureListActivity> mDepartureList =
+        new ActivityTestRule<>(DepartureListActivity.class, false, false);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        BenchmarkData.setUp();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        BenchmarkData.tearDown();
+    }
+
+    @Test
+    public void scrollStopList() throws Exception {
+        StopListActivity activity = mStopList.launchActivity(null);
+        BenchmarkData.awaitListDrawn(activity, R.id.stop_list_recycler);
+
+        scroll("StopListActivity scroll", R.id.stop_list_recycler);
+    }
+
+    @Test
+    public void scrollDepartureList() throws Exception {
+        DepartureListActivity activity = mDepartureList.launchActivity(BenchmarkData.departureListIntent());
+        BenchmarkData.awaitListDrawn(activity, R.id.departure_list_recycler);
+
+        scroll("DepartureListActivity scroll", R.id.departure_list_recycler);
+    }
+
+    private static void scroll(String name, int listId) throws Exception {
+        FrameStats.reset();
+        for (int i = 0; i < SWIPES; i++) {
+            onView(withId(listId)).perform(swipeUp());
+        }
+
+        for (int i = 0; i < SWIPES; i++) {
+            onView(withId(listId)).perform(swipeDown());
+        }
+
+        Measurements.report(name, FrameStats.collect().toString());
+    }
+}
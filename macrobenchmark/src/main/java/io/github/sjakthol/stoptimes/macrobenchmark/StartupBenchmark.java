@@ -0,0 +1,83 @@
+package io.github.sjakthol.stoptimes.macrobenchmark;
+
+import android.os.SystemClock;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import io.github.sjakthol.stoptimes.R;
+import io.github.sjakthol.stoptimes.activity.departures.DepartureListActivity;
+import io.github.sjakthol.stoptimes.activity.stoplist.StopListActivity;
+import io.github.sjakthol.stoptimes.digitransit.DepartureCache;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures how long it takes to open the stop list and the departures of a stop while the app
+ * process is running. Cold starts are measured by the coldStartBenchmark Gradle task.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+    private static final int ITERATIONS = 10;
+
+    @Rule
+    public ActivityTestRule<StopListActivity> mStopList =
+        new ActivityTestRule<>(StopListActivity.class, false, false);
+
+    @Rule
+    public ActivityTestRule<DepartureListActivity> mDepartureList =
+        new ActivityTestRule<>(DepartureListActivity.class, false, false);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        BenchmarkData.setUp();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        BenchmarkData.tearDown();
+    }
+
+    @Test
+    public void warmStartStopList() {
+        Measurements res = new Measurements("StopListActivity warm start", "ms");
+
+        // The first launch loads the classes and opens the database; leave it out
+        for (int i = 0; i <= ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtime();
+            // Returns once the activity is resumed and the main thread is idle, i.e. after
+            // the first frame has been drawn
+            mStopList.launchActivity(null);
+            long end = SystemClock.elapsedRealtime();
+            mStopList.finishActivity();
+
+            if (i > 0) {
+                res.add(end - start);
+            }
+        }
+
+        res.report();
+    }
+
+    @Test
+    public void firstDepartureFrame() throws Exception {
+        Measurements res = new Measurements("DepartureListActivity time to first departure frame", "ms");
+
+        for (int i = 0; i <= ITERATIONS; i++) {
+            // Cached departures would be shown without waiting for the API
+            DepartureCache.getInstance().clear();
+
+            long start = SystemClock.elapsedRealtime();
+            DepartureListActivity activity = mDepartureList.launchActivity(BenchmarkData.departureListIntent());
+            long drawn = BenchmarkData.awaitListDrawn(activity, R.id.departure_list_recycler);
+            mDepartureList.finishActivity();
+
+            if (i > 0) {
+                res.add(drawn - start);
+            }
+        }
+
+        res.report();
+    }
+}